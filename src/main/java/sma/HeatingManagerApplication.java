@@ -6,6 +6,8 @@ import static com.pi4j.io.gpio.RaspiPin.GPIO_22;
 import static com.pi4j.io.gpio.RaspiPin.GPIO_27;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalTime;
 import java.util.Map;
 import java.util.function.Supplier;
@@ -19,52 +21,111 @@ import com.pi4j.io.gpio.RaspiGpioProvider;
 import com.pi4j.io.gpio.RaspiPinNumberingScheme;
 import com.pi4j.io.gpio.SimulatedGpioProvider;
 
+import sma.domain.ControllerState;
+import sma.domain.HeaterReading;
+import sma.domain.HeatingState;
 import sma.domain.em.DataBlock;
+import sma.service.EnergyBalancer;
 import sma.service.EnergyMeterService;
+import sma.service.FlightRecorder;
+import sma.service.FlightRecorder.Action;
+import sma.service.FlightRecorder.Event;
 import sma.service.Heater;
 import sma.service.HeaterMeterService;
+import sma.service.MeterSource;
+import sma.service.PeerCoordinator;
+import sma.service.StateBroadcaster;
+import sma.service.StatePublisher;
+import sma.service.TankModel;
 import sma.service.TemperatureService;
 import sma.service.WebServer;
+import sma.service.modbus.ModbusMeterService;
+import sma.service.modbus.ModbusRegisterMap;
 
 
 public class HeatingManagerApplication {
 
     private static final Logger log = LoggerFactory.getLogger(HeatingManagerApplication.class);
 
-    public static void main(String[] args) throws InterruptedException {
+    private static final double THROTTLE_TEMP = 59.0;  // step down if expected temperature is higher
+    private static final double HOLD_TEMP = 58.0;      // don't step up if expected temperature is higher
+    private static final double RELAXED_TEMP = 50.0;   // read temperature less often below this value
 
-        EnergyMeterService meter = new EnergyMeterService();
+    private static final Duration LOOKAHEAD = Duration.ofMinutes(1);
+
+    private static final double PEER_STEP = 200.0;     // roughly the largest power change of one heater level
+
+    private static final int RECORDER_CAPACITY = 16384;   // a few hours of decisions and pulses
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+
+        MeterSource meter = createMeterSource();
+
+        // use energy counters instead of instantaneous power values, e.g. -Denergy.balancing=true
+        EnergyBalancer balancer = Boolean.getBoolean("energy.balancing") ? new EnergyBalancer() : null;
 
         String tempRoot = isWindows() ? "./" : "/sys/bus/w1/";
         TemperatureService tempService = new TemperatureService("28-01205b7cac50", tempRoot);
+        TankModel tankModel = new TankModel();
 
         GpioController controller = createController();
 
-        Heater heater = new Heater(controller, GPIO_22, GPIO_27, GPIO_17);
+        FlightRecorder recorder = new FlightRecorder(RECORDER_CAPACITY);
+
+        Heater heater = new Heater(controller, GPIO_22, GPIO_27, GPIO_17, recorder);
+
+        HeaterMeterService heaterMeter = new HeaterMeterService(controller, GPIO_13, recorder);
+
+        StatePublisher state = new StatePublisher(heaterMeter);
 
-        HeaterMeterService heaterMeter = new HeaterMeterService(controller, GPIO_13);
+        // send the decoded state to a separate multicast group, e.g. -Dstate.feed=true
+        StateBroadcaster feed = Boolean.getBoolean("state.feed") ? new StateBroadcaster() : null;
+
+        // share the surplus with other instances on the same energy meter, e.g. -Dpeer.priority=10
+        PeerCoordinator peers = null;
+        Integer peerPriority = Integer.getInteger("peer.priority");
+        if (peerPriority != null) {
+            log.info("Sharing surplus with peers using priority {}", peerPriority);
+            peers = new PeerCoordinator(peerPriority, HeaterMeterService.MAX_POWER);
+            peers.start();
+        }
 
         int estimatedValue = 0;
 
         int logPingTimer = 0;
-        int temperatureTimer = 0;
+        int temperatureTimer = 0;   // iterations until the next temperature read
         boolean temperatureStop = false;
 
         boolean inSleepMode = false;
 
+        double powerIn = Double.NaN;
+        double powerOut = Double.NaN;
+        double powerL1 = Double.NaN;
+        double powerL2 = Double.NaN;
+        double powerL3 = Double.NaN;
+        double gridSurplus = Double.NaN;
+        double controlSurplus = Double.NaN;
+        Instant meterTimestamp = null;
+        double temperature = Double.NaN;
+        double expected = Double.NaN;
+
         Supplier<Map<String, Object>> dataProvider = () -> {
+            HeatingState snapshot = state.get();
+            HeaterReading reading = snapshot.getHeater();
             return Map.<String, Object>of(
-                    "pfcLevel", heaterMeter.getPfcLevel(),
-                    "rawPfcLevel", heaterMeter.getRawPfcLevel(),
-                    "maxPfcLevel", heaterMeter.getMaxPfcLevel(),
-                    "currentPower", heaterMeter.getPower(),
-                    "currentRawPower", heaterMeter.getRawPower(),
-                    "startTime", heaterMeter.getStartTime(),
-                    "totalEnergyWh", heaterMeter.getWattHours()
+                    "pfcLevel", reading.getPfcLevel(),
+                    "rawPfcLevel", reading.getRawPfcLevel(),
+                    "maxPfcLevel", reading.getMaxPfcLevel(),
+                    "currentPower", reading.getPower(),
+                    "currentRawPower", reading.getRawPower(),
+                    "startTime", reading.getStartTime(),
+                    "totalEnergyWh", reading.getWattHours(),
+                    "timestamp", snapshot.getTimestamp(),
+                    "controller", snapshot.getController()
                     );
         };
 
-        WebServer server = new WebServer(dataProvider);
+        WebServer server = new WebServer(dataProvider, recorder);
         server.start();
 
         log.info("Reset to zero ..");
@@ -75,6 +136,19 @@ public class HeatingManagerApplication {
         boolean logIdleMin = true;
 
         while (true) {
+            // only publish meter values that were read in this cycle
+            meterTimestamp = null;
+            powerIn = powerOut = Double.NaN;
+            powerL1 = powerL2 = powerL3 = Double.NaN;
+            gridSurplus = controlSurplus = Double.NaN;
+
+            if (peers != null) {
+                // while sleeping or stopped by temperature, this instance cannot take any power
+                double claimed = heaterMeter.getPower();
+                boolean blocked = inSleepMode || temperatureStop;
+                peers.setLoad(claimed, blocked ? 0 : claimed + PEER_STEP);
+            }
+
             try {
                 LocalTime time = LocalTime.now();
                 if (time.getHour() > 21 || time.getHour() < 6) {
@@ -94,8 +168,13 @@ public class HeatingManagerApplication {
                 }
 
                 // check every 10th iteration if temperature is still below maximum
-                if (temperatureTimer++ % 10 == 0) {
-                    float temperature = tempService.getTemperature();   // slow call, about ~2sec
+                // if the tank model is calibrated and the tank is far from the limit, every 30th is enough
+                if (temperatureTimer-- <= 0) {
+                    temperature = tempService.getTemperature();   // slow call, about ~2sec
+                    tankModel.update(temperature, heaterMeter.getWattHours(), Instant.now());
+                    recorder.record(Event.TEMPERATURE, Action.NONE, estimatedValue, estimatedValue,
+                            Double.NaN, Double.NaN, temperature, heaterMeter.getPower());
+                    temperatureTimer = (tankModel.isCalibrated() && temperature < RELAXED_TEMP) ? 29 : 9;
 
                     if (!temperatureStop && temperature > 60) {
                         log.info("Max. temp reached - shutting down heater");
@@ -114,43 +193,97 @@ public class HeatingManagerApplication {
                     continue;
                 }
 
-                DataBlock block = meter.waitForBroadcast();
+                DataBlock block = meter.read();
                 if (block.getSerialNumber() == -1) {
                     log.warn("Invalid data from energy meter - skipping");
                     continue;
                 }
-                double surplus = Math.floor(block.getPowerOut() - block.getPowerIn()); // round to improve formatting
+                meterTimestamp = Instant.now();
+                powerIn = block.getPowerIn();
+                powerOut = block.getPowerOut();
+                powerL1 = block.getPowerOutL1() - block.getPowerInL1();
+                powerL2 = block.getPowerOutL2() - block.getPowerInL2();
+                powerL3 = block.getPowerOutL3() - block.getPowerInL3();
+                gridSurplus = Math.floor(powerOut - powerIn); // round to improve formatting
+                double surplus = gridSurplus;
+
+                if (balancer != null) {
+                    double balanced = balancer.update(block, meterTimestamp);
+                    if (Double.isNaN(balanced)) {
+                        log.info("Waiting for next energy counter values - skipping");
+                        continue;
+                    }
+                    surplus = Math.floor(balanced);
+                }
 
                 if (surplus > 100_000 || surplus < -100_000) {
                     log.warn("Invalid surplus value '{}'- skipping", surplus);
                     continue;
                 }
 
-                if (surplus > 150.0) {
-                    if (estimatedValue < 11) {
+                // anticipate the temperature limit and throttle before it is reached
+                double heaterPower = heaterMeter.getPower();
+                expected = tankModel.predict(heaterMeter.getWattHours(), Instant.now(), heaterPower, LOOKAHEAD);
+                boolean throttle = expected > THROTTLE_TEMP;
+                boolean hold = expected > HOLD_TEMP;
+
+                if (peers != null) {
+                    // at most one step up - keep the current load if the tank is close to the limit
+                    peers.setLoad(heaterPower, hold ? heaterPower : heaterPower + PEER_STEP);
+                    surplus = Math.floor(peers.shareSurplus(surplus));
+                }
+                controlSurplus = surplus;
+
+                Action action = Action.NONE;
+                int target = estimatedValue;
+                if (surplus > 150.0 && !hold) {
+                    action = (estimatedValue < 11) ? Action.UP : Action.MAX_REACHED;
+                    target = Math.min(11, estimatedValue + 1);
+                } else if (surplus < 0 || throttle) {
+                    action = (estimatedValue > -1) ? Action.DOWN : Action.MIN_REACHED;
+                    target = Math.max(-1, estimatedValue - 1);
+                }
+
+                recorder.record(Event.DECISION, action, target, estimatedValue, gridSurplus, surplus, expected, heaterPower);
+
+                switch (action) {
+                    case UP:
                         heater.up();
                         estimatedValue++;
                         logIdleMax = true;
                         log.info("Up to [{}] || Power: {} Watt", estimatedValue * 10, surplus);
-                    } else {
+                        break;
+                    case MAX_REACHED:
                         if (logIdleMax) log.info("Enter idle mode because maximum (110) is reached: {} Watt", surplus);
                         logIdleMax = false;
-                    }
-                } else if (surplus < 0) {
-                    if (estimatedValue > -1) {
+                        break;
+                    case DOWN:
                         heater.down();
                         estimatedValue--;
                         logIdleMin = true;
-                        log.info("Down to [{}] || Power: {} Watt", estimatedValue * 10, surplus);
-                    } else {
+                        if (throttle) {
+                            log.info("Down to [{}] || Expected temperature: {} °C", estimatedValue * 10, String.format("%.1f", expected));
+                        } else {
+                            log.info("Down to [{}] || Power: {} Watt", estimatedValue * 10, surplus);
+                        }
+                        break;
+                    case MIN_REACHED:
                         if (logIdleMin) log.info("Enter idle mode because minimum (-10) is reached: {} Watt", surplus);
                         logIdleMin = false;
-                    }
+                        break;
+                    default:
+                        break;
                 }
             } catch (IOException e) {
                 log.error("Failed to connect: {}", e.toString());
                 heater.resetToZero();
                 estimatedValue = -1;
+            } finally {
+                state.publish(new ControllerState(meterTimestamp, gridSurplus, controlSurplus, powerIn, powerOut,
+                        powerL1, powerL2, powerL3, temperature, expected, estimatedValue, temperatureStop, inSleepMode));
+                if (feed != null) {
+                    feed.publish(state.get());
+                }
             }
 
             // log something every now and then
@@ -167,6 +300,28 @@ public class HeatingManagerApplication {
         return osName.startsWith("Windows");
     }
 
+    private static MeterSource createMeterSource() throws IOException {
+        // poll the meter via Modbus TCP instead of Speedwire, e.g. -Dmeter.modbus=192.168.1.10:502
+        String modbus = System.getProperty("meter.modbus");
+        if (modbus == null) {
+            log.info("Using SMA Speedwire energy meter");
+            return new EnergyMeterService();
+        }
+
+        String[] hostPort = modbus.split(":");
+        String host = hostPort[0];
+        int port = hostPort.length > 1 ? Integer.parseInt(hostPort[1]) : ModbusMeterService.DEFAULT_PORT;
+        int unitId = Integer.getInteger("meter.modbus.unit", ModbusMeterService.DEFAULT_UNIT_ID);
+        int pollInterval = Integer.getInteger("meter.modbus.poll", ModbusMeterService.DEFAULT_POLL_INTERVAL);
+
+        // a bundled profile or a properties file, e.g. -Dmeter.modbus.map=/home/pi/meter.properties
+        String mapName = System.getProperty("meter.modbus.map", "sdm630");
+        ModbusRegisterMap registerMap = ModbusRegisterMap.load(mapName);
+
+        log.info("Using Modbus TCP energy meter at {}:{} (unit {}, map {})", host, port, unitId, mapName);
+        return new ModbusMeterService(host, port, unitId, pollInterval, ModbusMeterService.DEFAULT_TIMEOUT, registerMap);
+    }
+
     private static GpioController createController() {
         if (isWindows()) {
             log.info("Using simulated GPIO provider");
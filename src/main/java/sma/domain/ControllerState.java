@@ -0,0 +1,31 @@
+package sma.domain;
+
+import java.time.Instant;
+
+import lombok.Value;
+
+/**
+ * The state of the control loop at the end of a control cycle.
+ * <p>
+ * The meter values are <code>NaN</code> if no telegram was received in this cycle.
+ */
+@Value
+public class ControllerState {
+
+    public static final ControllerState NONE = new ControllerState(null, Double.NaN, Double.NaN, Double.NaN, Double.NaN,
+            Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, -1, false, false);
+
+    private Instant meterTimestamp;     // time the telegram was received, null if none in this cycle
+    private double surplus;             // net export as measured by the meter
+    private double controlSurplus;      // surplus used for the decision, after energy balancing and peer sharing
+    private double powerIn;
+    private double powerOut;
+    private double powerL1;     // net export per phase
+    private double powerL2;
+    private double powerL3;
+    private double temperature;
+    private double expectedTemperature;
+    private int estimatedLevel;
+    private boolean temperatureStop;
+    private boolean sleeping;
+}
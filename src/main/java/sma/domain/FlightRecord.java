@@ -0,0 +1,24 @@
+package sma.domain;
+
+import java.time.Instant;
+
+import lombok.Value;
+import sma.service.FlightRecorder.Action;
+import sma.service.FlightRecorder.Event;
+
+/**
+ * A single decoded entry of the flight recorder
+ */
+@Value
+public class FlightRecord {
+    private long sequence;
+    private Instant time;
+    private Event event;
+    private Action action;
+    private int target;
+    private int level;
+    private double surplus;
+    private double controlSurplus;
+    private double temperature;
+    private double power;
+}
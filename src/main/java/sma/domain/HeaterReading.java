@@ -0,0 +1,23 @@
+package sma.domain;
+
+import java.time.Instant;
+
+import lombok.Value;
+
+/**
+ * An immutable reading of the heater meter. All values are derived from the same pulse
+ * and the same point in time.
+ */
+@Value
+public class HeaterReading {
+
+    public static final HeaterReading NONE = new HeaterReading(0, 0, 0, 0, 0, null, 0);
+
+    private int pfcLevel;
+    private int rawPfcLevel;
+    private int maxPfcLevel;
+    private double power;
+    private double rawPower;
+    private Instant startTime;
+    private double wattHours;
+}
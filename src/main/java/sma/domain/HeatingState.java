@@ -0,0 +1,21 @@
+package sma.domain;
+
+import java.time.Instant;
+
+import lombok.Value;
+import lombok.With;
+
+/**
+ * An immutable snapshot of the meter, heater, temperature and controller state.
+ * A new instance is published after every event, so readers always see consistent values.
+ */
+@Value
+@With
+public class HeatingState {
+
+    public static final HeatingState NONE = new HeatingState(Instant.EPOCH, HeaterReading.NONE, ControllerState.NONE);
+
+    private Instant timestamp;
+    private HeaterReading heater;
+    private ControllerState controller;
+}
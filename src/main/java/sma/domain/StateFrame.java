@@ -0,0 +1,132 @@
+package sma.domain;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+
+import lombok.Value;
+
+/**
+ * A compact, fixed-layout binary representation of the decoded state.
+ * <p>
+ * Layout ({@value #SIZE} bytes, big endian):
+ * <pre>
+ *   0  int    magic "HMST"
+ *   4  short  version
+ *   6  short  flags (bit 0: temperature stop, bit 1: sleeping)
+ *   8  long   sequence number
+ *  16  long   timestamp (epoch millis)
+ *  24  long   meter timestamp (epoch millis), 0 if no telegram was received in this cycle
+ *  32  float  surplus (net export) in Watt as measured by the meter
+ *  36  float  control surplus in Watt, after energy balancing and peer sharing
+ *  40  float  net export L1 in Watt
+ *  44  float  net export L2 in Watt
+ *  48  float  net export L3 in Watt
+ *  52  float  heater power in Watt
+ *  56  short  heater PFC level
+ *  58  short  estimated level
+ *  60  float  tank temperature in degrees Celsius
+ * </pre>
+ * The meter values are <code>NaN</code> if no telegram was received in this cycle.
+ */
+@Value
+public class StateFrame {
+
+    public static final int MAGIC = 0x484D5354; // "HMST"
+    public static final short VERSION = 2;
+    public static final int SIZE = 64;
+
+    private static final int FLAG_TEMPERATURE_STOP = 0x01;
+    private static final int FLAG_SLEEPING = 0x02;
+
+    private long sequence;
+    private Instant timestamp;
+    private Instant meterTimestamp;     // null if no telegram was received in this cycle
+    private float surplus;
+    private float controlSurplus;
+    private float powerL1;
+    private float powerL2;
+    private float powerL3;
+    private float heaterPower;
+    private int pfcLevel;
+    private int estimatedLevel;
+    private float temperature;
+    private boolean temperatureStop;
+    private boolean sleeping;
+
+    public static StateFrame of(long sequence, HeatingState state) {
+        ControllerState ctrl = state.getController();
+        HeaterReading heater = state.getHeater();
+        return new StateFrame(sequence, state.getTimestamp(),
+                ctrl.getMeterTimestamp(),
+                (float) ctrl.getSurplus(),
+                (float) ctrl.getControlSurplus(),
+                (float) ctrl.getPowerL1(),
+                (float) ctrl.getPowerL2(),
+                (float) ctrl.getPowerL3(),
+                (float) heater.getPower(),
+                heater.getPfcLevel(),
+                ctrl.getEstimatedLevel(),
+                (float) ctrl.getTemperature(),
+                ctrl.isTemperatureStop(),
+                ctrl.isSleeping());
+    }
+
+    /**
+     * Writes this frame at the current position of the buffer
+     */
+    public void encode(ByteBuffer buffer) {
+        int flags = (temperatureStop ? FLAG_TEMPERATURE_STOP : 0) | (sleeping ? FLAG_SLEEPING : 0);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short) flags);
+        buffer.putLong(sequence);
+        buffer.putLong(timestamp.toEpochMilli());
+        buffer.putLong(meterTimestamp != null ? meterTimestamp.toEpochMilli() : 0);
+        buffer.putFloat(surplus);
+        buffer.putFloat(controlSurplus);
+        buffer.putFloat(powerL1);
+        buffer.putFloat(powerL2);
+        buffer.putFloat(powerL3);
+        buffer.putFloat(heaterPower);
+        buffer.putShort((short) pfcLevel);
+        buffer.putShort((short) estimatedLevel);
+        buffer.putFloat(temperature);
+    }
+
+    /**
+     * Reads a frame from the current position of the buffer
+     * @throws IllegalArgumentException if the buffer does not contain a valid frame
+     */
+    public static StateFrame decode(ByteBuffer buffer) {
+        if (buffer.remaining() < SIZE) {
+            throw new IllegalArgumentException("Frame too short: " + buffer.remaining() + " < " + SIZE);
+        }
+        if (buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a state frame");
+        }
+        short version = buffer.getShort();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported frame version: " + version);
+        }
+
+        int flags = buffer.getShort();
+        long sequence = buffer.getLong();
+        Instant timestamp = Instant.ofEpochMilli(buffer.getLong());
+        long meterMillis = buffer.getLong();
+        return new StateFrame(
+                sequence,
+                timestamp,
+                meterMillis != 0 ? Instant.ofEpochMilli(meterMillis) : null,
+                buffer.getFloat(),
+                buffer.getFloat(),
+                buffer.getFloat(),
+                buffer.getFloat(),
+                buffer.getFloat(),
+                buffer.getFloat(),
+                buffer.getShort(),
+                buffer.getShort(),
+                buffer.getFloat(),
+                (flags & FLAG_TEMPERATURE_STOP) != 0,
+                (flags & FLAG_SLEEPING) != 0);
+    }
+}
@@ -20,6 +20,8 @@ public class DataBlock {
     private static final FieldDTO powerOutL3 = new FieldDTO(0x1DC, 4, 10); // + C
     private static final FieldDTO energyOutL3 = new FieldDTO(0x1E4, 8, 3600000); // +8
 
+    public static final int TELEGRAM_LENGTH = 608;
+
     private byte[] data;
 
     public DataBlock(byte[] data) {
@@ -46,6 +48,10 @@ public class DataBlock {
         return new DataBlock(data);
     }
 
+    public static Builder builder() {
+        return new Builder();
+    }
+
     public long getSerialNumber() {
         return serialNo.getValueLong(data);
     }
@@ -63,10 +69,18 @@ public class DataBlock {
         return (energyIn.getValueFloat(data));
     }
 
+    public long getEnergyInWattSeconds() {
+        return energyIn.getValueRaw(data);
+    }
+
     public float getEnergyOut() {
         return (energyOut.getValueFloat(data));
     }
 
+    public long getEnergyOutWattSeconds() {
+        return energyOut.getValueRaw(data);
+    }
+
     public float getPowerInL1() {
         return (powerInL1.getValueFloat(data));
     }
@@ -79,10 +93,18 @@ public class DataBlock {
         return (energyInL1.getValueFloat(data));
     }
 
+    public long getEnergyInL1WattSeconds() {
+        return energyInL1.getValueRaw(data);
+    }
+
     public float getEnergyOutL1() {
         return (energyOutL1.getValueFloat(data));
     }
 
+    public long getEnergyOutL1WattSeconds() {
+        return energyOutL1.getValueRaw(data);
+    }
+
     public float getPowerInL2() {
         return (powerInL2.getValueFloat(data));
     }
@@ -95,10 +117,18 @@ public class DataBlock {
         return (energyInL2.getValueFloat(data));
     }
 
+    public long getEnergyInL2WattSeconds() {
+        return energyInL2.getValueRaw(data);
+    }
+
     public float getEnergyOutL2() {
         return (energyOutL2.getValueFloat(data));
     }
 
+    public long getEnergyOutL2WattSeconds() {
+        return energyOutL2.getValueRaw(data);
+    }
+
     public float getPowerInL3() {
         return (powerInL3.getValueFloat(data));
     }
@@ -111,10 +141,86 @@ public class DataBlock {
         return (energyInL3.getValueFloat(data));
     }
 
+    public long getEnergyInL3WattSeconds() {
+        return energyInL3.getValueRaw(data);
+    }
+
     public float getEnergyOutL3() {
         return (energyOutL3.getValueFloat(data));
     }
 
+    public long getEnergyOutL3WattSeconds() {
+        return energyOutL3.getValueRaw(data);
+    }
+
+    /**
+     * Assembles a data block from values of other sources than the SMA telegram.
+     * All values are unscaled, i.e. power in 0.1 W and energy in Ws.
+     */
+    public static class Builder {
+
+        private final byte[] data = new byte[TELEGRAM_LENGTH];
+
+        public Builder serialNumber(long value) {
+            serialNo.setValueRaw(data, value);
+            return this;
+        }
+
+        public Builder powerIn(long value) {
+            powerIn.setValueRaw(data, value);
+            return this;
+        }
+
+        public Builder powerOut(long value) {
+            powerOut.setValueRaw(data, value);
+            return this;
+        }
+
+        public Builder energyIn(long value) {
+            energyIn.setValueRaw(data, value);
+            return this;
+        }
+
+        public Builder energyOut(long value) {
+            energyOut.setValueRaw(data, value);
+            return this;
+        }
+
+        public Builder powerInL1(long value) {
+            powerInL1.setValueRaw(data, value);
+            return this;
+        }
+
+        public Builder powerOutL1(long value) {
+            powerOutL1.setValueRaw(data, value);
+            return this;
+        }
+
+        public Builder powerInL2(long value) {
+            powerInL2.setValueRaw(data, value);
+            return this;
+        }
+
+        public Builder powerOutL2(long value) {
+            powerOutL2.setValueRaw(data, value);
+            return this;
+        }
+
+        public Builder powerInL3(long value) {
+            powerInL3.setValueRaw(data, value);
+            return this;
+        }
+
+        public Builder powerOutL3(long value) {
+            powerOutL3.setValueRaw(data, value);
+            return this;
+        }
+
+        public DataBlock build() {
+            return new DataBlock(data.clone());
+        }
+    }
+
     @Override
     public String toString() {
         return "DataBlock [" + byteArrayToHex(data) + "]";
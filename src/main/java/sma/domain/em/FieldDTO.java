@@ -46,6 +46,30 @@ public class FieldDTO {
         return getValueInternal(bytes) / (float)divisor;
     }
 
+    /**
+     * Returns the value without applying the divisor. In contrast to {@link #getValueFloat(byte[])}
+     * this is exact, also for large 64-bit counters.
+     * @return the unscaled value in units of 1/divisor
+     */
+    public long getValueRaw(byte[] bytes) {
+        return getValueInternal(bytes);
+    }
+
+    /**
+     * Writes the unscaled value into the given data block
+     * @param bytes the data block
+     * @param value the value in units of 1/divisor
+     */
+    public void setValueRaw(byte[] bytes, long value) {
+        if (length == 4) {
+            System.arraycopy(Ints.toByteArray((int) value), 0, bytes, address, 4);
+        } else if (length == 8) {
+            System.arraycopy(Longs.toByteArray(value), 0, bytes, address, 8);
+        } else {
+            throw new IllegalArgumentException("length must be 4 or 8");
+        }
+    }
+
     private long getValueInternal(byte[] bytes) {
         if (length == 4) {
             return bytesToUInt32(Arrays.copyOfRange(bytes, address, address + 4));
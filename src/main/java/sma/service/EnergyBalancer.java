@@ -0,0 +1,124 @@
+package sma.service;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import sma.domain.em.DataBlock;
+
+/**
+ * The {@link EnergyBalancer} derives the surplus from the energy counters of two consecutive telegrams
+ * instead of the instantaneous power values. This averages over the whole time between the telegrams,
+ * so single spikes have no effect.
+ * <p>
+ * In addition, the exported (or imported) energy is summed up for every balancing interval. The remaining
+ * balance is spread over the rest of the interval and added to the surplus, so that the net export per
+ * interval is driven towards zero.
+ * <p>
+ * Telegrams must follow each other closely: after a gap (e.g. a temperature stop, sleep mode or a connection
+ * problem) the energy of the whole gap would be taken as the balance of the current interval, so the balance
+ * is restarted instead. The energy between two telegrams that lie in different intervals is split between them.
+ */
+public class EnergyBalancer {
+
+    private static final Logger log = LoggerFactory.getLogger(EnergyBalancer.class);
+
+    public static final Duration DEFAULT_INTERVAL = Duration.ofMinutes(15);
+
+    /**
+     * The balance is spread over at least this time span, to avoid large corrections at the end of an interval
+     */
+    private static final long MIN_HORIZON_SECS = 60;
+
+    /**
+     * Telegrams further apart than this are not considered continuous - the main loop reads one about every 5 seconds
+     */
+    static final Duration MAX_GAP = Duration.ofSeconds(30);
+
+    private final long intervalMillis;
+
+    private long lastSerialNumber = -1;
+    private long lastEnergyIn;
+    private long lastEnergyOut;
+    private Instant lastTime;
+
+    private long intervalStart = -1;
+    private long balance;   // net export in the current interval in Ws
+
+    public EnergyBalancer() {
+        this(DEFAULT_INTERVAL);
+    }
+
+    public EnergyBalancer(Duration interval) {
+        this.intervalMillis = interval.toMillis();
+    }
+
+    /**
+     * @return the net export in the current interval in Ws
+     */
+    public long getBalance() {
+        return balance;
+    }
+
+    /**
+     * @param block the received telegram
+     * @param time the time the telegram was received
+     * @return the surplus in Watt - or <code>NaN</code> if it cannot be computed yet
+     */
+    public double update(DataBlock block, Instant time) {
+        long serialNumber = block.getSerialNumber();
+        long energyIn = block.getEnergyInWattSeconds();
+        long energyOut = block.getEnergyOutWattSeconds();
+
+        boolean valid = lastTime != null
+                && serialNumber == lastSerialNumber
+                && energyIn >= lastEnergyIn
+                && energyOut >= lastEnergyOut
+                && time.isAfter(lastTime);
+
+        if (!valid && lastSerialNumber != -1) {
+            log.info("Energy counters not continuous - restarting balance");
+        } else if (valid && Duration.between(lastTime, time).compareTo(MAX_GAP) > 0) {
+            log.info("No telegram for {} sec - restarting balance", Duration.between(lastTime, time).toSeconds());
+            valid = false;
+        }
+
+        long deltaIn = energyIn - lastEnergyIn;
+        long deltaOut = energyOut - lastEnergyOut;
+        Instant prevTime = lastTime;
+
+        lastSerialNumber = serialNumber;
+        lastEnergyIn = energyIn;
+        lastEnergyOut = energyOut;
+        lastTime = time;
+
+        if (!valid) {
+            intervalStart = -1;
+            return Double.NaN;
+        }
+
+        long now = time.toEpochMilli();
+        long prev = prevTime.toEpochMilli();
+        long start = now - now % intervalMillis;
+        long netExport = deltaOut - deltaIn;
+
+        if (start != intervalStart) {
+            intervalStart = start;
+            balance = 0;
+        }
+        if (prev < start) {
+            // only the part after the interval boundary belongs to the new interval
+            balance += Math.round((double) netExport * (now - start) / (now - prev));
+        } else {
+            balance += netExport;
+        }
+
+        double secs = Duration.between(prevTime, time).toMillis() / 1000.0;
+        double averagePower = netExport / secs;
+
+        double remainingSecs = Math.max(MIN_HORIZON_SECS, (start + intervalMillis - now) / 1000.0);
+        return averagePower + balance / remainingSecs;
+    }
+}
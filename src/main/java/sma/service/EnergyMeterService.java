@@ -10,9 +10,9 @@ import sma.domain.em.DataBlock;
 
 /**
  * The {@link EnergyMeterService} class is responsible for communication with the SMA device
- * and extracting the data fields out of the received telegrams.
+ * and extracting the data fields out of the received telegrams (Speedwire multicast).
  */
-public class EnergyMeterService {
+public class EnergyMeterService implements MeterSource {
 
     private String multicastGroup;
     private int port;
@@ -32,13 +32,18 @@ public class EnergyMeterService {
         this.timeout = timeout;
     }
 
+    @Override
+    public DataBlock read() throws IOException {
+        return waitForBroadcast();
+    }
+
     public DataBlock waitForBroadcast() throws IOException {
         try (MulticastSocket socket = new MulticastSocket(port)) {
             socket.setSoTimeout(timeout);
             InetAddress address = InetAddress.getByName(multicastGroup);
             socket.joinGroup(address);
 
-            byte[] bytes = new byte[608];
+            byte[] bytes = new byte[DataBlock.TELEGRAM_LENGTH];
             DatagramPacket msgPacket = new DatagramPacket(bytes, bytes.length);
             socket.receive(msgPacket);
 
@@ -0,0 +1,170 @@
+package sma.service;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import sma.domain.FlightRecord;
+
+/**
+ * The {@link FlightRecorder} keeps the most recent control decisions, actuations and heater pulses
+ * in a ring buffer of fixed-size records. Recording does not allocate and does not lock.
+ * <p>
+ * Every record consists of {@value #RECORD_LONGS} longs (big endian in the binary dump):
+ * <pre>
+ *   0  sequence number
+ *   1  time (epoch millis)
+ *   2  event (ordinal of {@link Event})
+ *   3  action (ordinal of {@link Action})
+ *   4  target level
+ *   5  estimated level (or PFC level for pulses)
+ *   6  measured surplus in Watt (double bits)
+ *   7  control surplus in Watt, after peer sharing or energy balancing (double bits)
+ *   8  temperature in degrees Celsius (double bits)
+ *   9  heater power in Watt (double bits)
+ * </pre>
+ * Values that do not apply to an event are <code>0</code> (levels) or <code>NaN</code>.
+ */
+public class FlightRecorder {
+
+    public enum Event {
+        DECISION,
+        ACTUATION_START,
+        ACTUATION_END,
+        PULSE,
+        TEMPERATURE
+    }
+
+    public enum Action {
+        NONE,
+        UP,
+        DOWN,
+        RESET,
+        MAX_REACHED,
+        MIN_REACHED
+    }
+
+    public static final int RECORD_LONGS = 10;
+    public static final int RECORD_BYTES = RECORD_LONGS * Long.BYTES;
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private static final long IN_PROGRESS = -1;
+
+    private final long[] data;
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong();
+
+    /**
+     * @param capacity the number of records - rounded up to the next power of two
+     */
+    public FlightRecorder(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.data = new long[size * RECORD_LONGS];
+        for (int i = 0; i < size; i++) {
+            data[i * RECORD_LONGS] = IN_PROGRESS;
+        }
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    public void record(Event event, Action action, int target, int level,
+            double surplus, double controlSurplus, double temperature, double power) {
+
+        long seq = cursor.getAndIncrement();
+        int base = (int) (seq & mask) * RECORD_LONGS;
+
+        // mark the slot as dirty, so that readers skip it while it is written
+        LONGS.setOpaque(data, base, IN_PROGRESS);
+        VarHandle.storeStoreFence();
+
+        data[base + 1] = System.currentTimeMillis();
+        data[base + 2] = event.ordinal();
+        data[base + 3] = action.ordinal();
+        data[base + 4] = target;
+        data[base + 5] = level;
+        data[base + 6] = Double.doubleToRawLongBits(surplus);
+        data[base + 7] = Double.doubleToRawLongBits(controlSurplus);
+        data[base + 8] = Double.doubleToRawLongBits(temperature);
+        data[base + 9] = Double.doubleToRawLongBits(power);
+
+        LONGS.setRelease(data, base, seq);
+    }
+
+    /**
+     * @param since the oldest time of interest
+     * @return all complete records since the given time, oldest first
+     */
+    public List<FlightRecord> dump(Instant since) {
+        List<FlightRecord> result = new ArrayList<>();
+        Event[] events = Event.values();
+        Action[] actions = Action.values();
+
+        long[] record = new long[RECORD_LONGS];
+        long end = cursor.get();
+        for (long seq = Math.max(0, end - getCapacity()); seq < end; seq++) {
+            if (read(seq, record) && record[1] >= since.toEpochMilli()) {
+                result.add(new FlightRecord(
+                        record[0],
+                        Instant.ofEpochMilli(record[1]),
+                        events[(int) record[2]],
+                        actions[(int) record[3]],
+                        (int) record[4],
+                        (int) record[5],
+                        Double.longBitsToDouble(record[6]),
+                        Double.longBitsToDouble(record[7]),
+                        Double.longBitsToDouble(record[8]),
+                        Double.longBitsToDouble(record[9])));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param since the oldest time of interest
+     * @return all complete records since the given time in the binary record format, oldest first
+     */
+    public ByteBuffer dumpBinary(Instant since) {
+        long end = cursor.get();
+        long start = Math.max(0, end - getCapacity());
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start) * RECORD_BYTES);
+
+        long[] record = new long[RECORD_LONGS];
+        for (long seq = start; seq < end; seq++) {
+            if (read(seq, record) && record[1] >= since.toEpochMilli()) {
+                for (long value : record) {
+                    buffer.putLong(value);
+                }
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Copies a record - seqlock style: the sequence number is checked before and after
+     * @return true if the record is complete and was not overwritten while reading
+     */
+    private boolean read(long seq, long[] record) {
+        int base = (int) (seq & mask) * RECORD_LONGS;
+
+        if ((long) LONGS.getAcquire(data, base) != seq) {
+            return false;
+        }
+
+        for (int i = 1; i < RECORD_LONGS; i++) {
+            record[i] = data[base + i];
+        }
+        record[0] = seq;
+
+        VarHandle.loadLoadFence();
+        return (long) LONGS.getVolatile(data, base) == seq;
+    }
+}
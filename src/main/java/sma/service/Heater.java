@@ -8,6 +8,9 @@ import com.pi4j.io.gpio.GpioPinDigitalOutput;
 import com.pi4j.io.gpio.Pin;
 import com.pi4j.io.gpio.PinState;
 
+import sma.service.FlightRecorder.Action;
+import sma.service.FlightRecorder.Event;
+
 /**
  * TODO: describe
  */
@@ -23,8 +26,11 @@ public class Heater {
     private GpioPinDigitalOutput gpioDown;
     private GpioPinDigitalOutput gpioOnOff;
 
+    private final FlightRecorder recorder;
+
 
-    public Heater(GpioController controller, Pin pinOnOff, Pin pinUp, Pin pinDown) {
+    public Heater(GpioController controller, Pin pinOnOff, Pin pinUp, Pin pinDown, FlightRecorder recorder) {
+        this.recorder = recorder;
 
         gpioOnOff = controller.provisionDigitalOutputPin(pinOnOff, PinState.HIGH);
         gpioUp = controller.provisionDigitalOutputPin(pinUp, PinState.HIGH);
@@ -36,21 +42,23 @@ public class Heater {
     }
 
     public void up() {
-        push(gpioUp, MS_TEN_UP);
+        push(gpioUp, MS_TEN_UP, Action.UP);
     }
 
     public void down() {
-        push(gpioDown, MS_TEN_DOWN);
+        push(gpioDown, MS_TEN_DOWN, Action.DOWN);
     }
 
     public void resetToZero() {
-        push(gpioDown, 11 * MS_TEN_DOWN); // 10 should be enough, +1 for extra buffering
+        push(gpioDown, 11 * MS_TEN_DOWN, Action.RESET); // 10 should be enough, +1 for extra buffering
     }
 
-    private static void push(GpioPinDigitalOutput gpio, long time) {
+    private void push(GpioPinDigitalOutput gpio, long time, Action action) {
+        recorder.record(Event.ACTUATION_START, action, 0, 0, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
         gpio.low();
         silentSleep(time);
         gpio.high();
+        recorder.record(Event.ACTUATION_END, action, 0, 0, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
         silentSleep(500);
     }
 
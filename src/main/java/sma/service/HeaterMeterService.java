@@ -18,11 +18,15 @@ import com.pi4j.io.gpio.PinState;
 import com.pi4j.io.gpio.event.GpioPinDigitalStateChangeEvent;
 import com.pi4j.io.gpio.event.GpioPinListenerDigital;
 
+import sma.domain.HeaterReading;
+import sma.service.FlightRecorder.Action;
+import sma.service.FlightRecorder.Event;
+
 public class HeaterMeterService {
 
     private static final double PULSE_PER_WH = 0.5;  // YEM015SD device: 0.5 Wh/impulse
 
-    private static final double MAX_POWER = 1160.0;  // 1200 Watt according to docs
+    public static final double MAX_POWER = 1160.0;  // 1200 Watt according to docs
 
     private static final Logger log = LoggerFactory.getLogger(HeaterMeterService.class);
 
@@ -34,12 +38,17 @@ public class HeaterMeterService {
 
     private Instant lastOn = Instant.MIN;
 
-    private volatile double power = 0;
-    private volatile double wattHours = 0;
-    private volatile int pfcLevel;
-    private volatile Instant startTime = Instant.now();
+    // written by the GPIO thread only, published as a whole
+    private volatile PulseState pulse = new PulseState(Instant.MIN, 0, 0, 0);
+    private final Instant startTime = Instant.now();
+
+    private volatile Runnable pulseListener = () -> { /* no-op */ };
+
+    private final FlightRecorder recorder;
 
-    public HeaterMeterService(GpioController controller, Pin sZeroBusInput) {
+    public HeaterMeterService(GpioController controller, Pin sZeroBusInput, FlightRecorder recorder) {
+
+        this.recorder = recorder;
 
         GpioPinDigitalInput switchGpio = controller.provisionDigitalInputPin(sZeroBusInput, PinPullResistance.PULL_UP);
 
@@ -53,8 +62,30 @@ public class HeaterMeterService {
         });
     }
 
+    /**
+     * @param listener called by the GPIO thread after every valid pulse
+     */
+    public void setPulseListener(Runnable listener) {
+        this.pulseListener = listener;
+    }
+
+    /**
+     * @return a consistent reading where all values are derived from the same pulse and the same point in time
+     */
+    public HeaterReading getReading() {
+        PulseState p = pulse;
+        double maxPower = findMaxPower(p.lastOn, Instant.now()); // maximum possible power (if next pulse comes now)
+        int maxPfcLevel = powerToPfcLevel(maxPower);
+
+        // if time to last pulse is larger than the time between the last two pulses, the values must be lower
+        int pfcLevel = p.pfcLevel < maxPfcLevel ? p.pfcLevel : maxPfcLevel;
+        double power = p.power < maxPower ? p.power : maxPower;
+
+        return new HeaterReading(pfcLevel, p.pfcLevel, maxPfcLevel, power, p.power, startTime, p.wattHours);
+    }
+
     public double getWattHours() {
-        return wattHours;
+        return pulse.wattHours;
     }
 
     public Instant getStartTime() {
@@ -62,30 +93,23 @@ public class HeaterMeterService {
     }
 
     public int getPfcLevel() {
-        int maxPfcLevel = getMaxPfcLevel(); // maximum possible level (if next pulse comes now)
-
-        // if time to last pulse is larger than the time between the last two pulses, the PFC level must be lower
-        return pfcLevel < maxPfcLevel ? pfcLevel : maxPfcLevel;
+        return getReading().getPfcLevel();
     }
 
     public double getPower() {
-        double maxPower = findMaxPower();
-
-        // if time to last pulse is larger than the time between the last two pulses, the power value must be lower
-        return power < maxPower ? power : maxPower;
+        return getReading().getPower();
     }
 
     public int getRawPfcLevel() {
-        return pfcLevel;
+        return pulse.pfcLevel;
     }
 
     public int getMaxPfcLevel() {
-        double maxPower = findMaxPower();
-        return powerToPfcLevel(maxPower);
+        return getReading().getMaxPfcLevel();
     }
 
     public double getRawPower() {
-        return power;
+        return pulse.power;
     }
 
     private void handleStateChange(PinState state) {
@@ -97,8 +121,9 @@ public class HeaterMeterService {
                 if (!Instant.MIN.equals(lastOn)) {
                     log.info("Invalid pulse gap: " + pulseTime.toMillis() + " ms.");
                 }
+                pulse = pulse.withLastOn(now);
             } else {
-                handlePulse(pulseTime);
+                handlePulse(pulseTime, now);
             }
             lastOn = now;
         }
@@ -107,13 +132,15 @@ public class HeaterMeterService {
             if (!isBetween(pulseTime, MIN_PULSE_TIME, MAX_PULSE_TIME)) {
                 log.info("Invalid pulse length: " + pulseTime);
                 lastOn = Instant.MIN;  // reset
+                pulse = pulse.withLastOn(Instant.MIN);
             }
         }
     }
 
-    private void handlePulse(Duration pulseGap) {
+    private void handlePulse(Duration pulseGap, Instant now) {
 
-        wattHours += PULSE_PER_WH;
+        PulseState prev = pulse;
+        double wattHours = prev.wattHours + PULSE_PER_WH;
 
         double timeInSecs = pulseGap.toMillis() / 1000.0;
 
@@ -125,20 +152,20 @@ public class HeaterMeterService {
 
         int newPfcLevel = powerToPfcLevel(newPower);
 
-        if (pfcLevel != newPfcLevel) {
+        if (prev.pfcLevel != newPfcLevel) {
             log.debug("Consumption: " + (int)newPower + " W - PFC level: " + newPfcLevel);
         }
 
-        pfcLevel = newPfcLevel;
-        power = newPower;
+        pulse = new PulseState(now, newPower, newPfcLevel, wattHours);
+        recorder.record(Event.PULSE, Action.NONE, 0, newPfcLevel, Double.NaN, Double.NaN, Double.NaN, newPower);
+        pulseListener.run();
     }
 
-    private double findMaxPower() {
+    private static double findMaxPower(Instant lastOn, Instant now) {
         if (Instant.MIN.equals(lastOn)) {
             return 0;
         }
 
-        Instant now = Instant.now();
         Duration pulseTime = Duration.between(lastOn, now);
 
         double timeInSecs = pulseTime.toMillis() / 1000.0;
@@ -176,6 +203,27 @@ public class HeaterMeterService {
         return newPfcLevel;
     }
 
+    /**
+     * Immutable state of the last pulse - replaced as a whole so that readers never see a mix of two pulses
+     */
+    private static class PulseState {
+        private final Instant lastOn;
+        private final double power;
+        private final int pfcLevel;
+        private final double wattHours;
+
+        PulseState(Instant lastOn, double power, int pfcLevel, double wattHours) {
+            this.lastOn = lastOn;
+            this.power = power;
+            this.pfcLevel = pfcLevel;
+            this.wattHours = wattHours;
+        }
+
+        PulseState withLastOn(Instant newLastOn) {
+            return new PulseState(newLastOn, power, pfcLevel, wattHours);
+        }
+    }
+
     private static boolean isBetween(Duration pulseTime, Duration minPulseTime, Duration maxPulseTime) {
         return pulseTime.compareTo(minPulseTime) > 0 && pulseTime.compareTo(maxPulseTime) < 0;
     }
@@ -0,0 +1,19 @@
+package sma.service;
+
+import java.io.IOException;
+
+import sma.domain.em.DataBlock;
+
+/**
+ * A source of energy meter samples at the grid connection point.
+ * All implementations deliver the values as {@link DataBlock}, no matter which protocol is used.
+ */
+public interface MeterSource {
+
+    /**
+     * Blocks until the next sample is available
+     * @return the next sample
+     * @throws IOException if the meter cannot be reached or sends invalid data
+     */
+    DataBlock read() throws IOException;
+}
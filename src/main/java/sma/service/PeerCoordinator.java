@@ -0,0 +1,242 @@
+package sma.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link PeerCoordinator} shares the surplus between several heating-manager instances
+ * that are connected to the same energy meter.
+ * <p>
+ * Every instance periodically announces its priority, the load it currently draws and
+ * the load it could take right now to a multicast group. All instances compute the same
+ * allocation from these announcements: the surplus plus all claimed loads forms a pool that
+ * is handed out in order of priority, each instance getting at most what it could take.
+ * Since the allocation only depends on the announcements, all instances agree on it at the
+ * latest one announcement interval after the last change.
+ */
+public class PeerCoordinator implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(PeerCoordinator.class);
+
+    public static final String DEFAULT_MCAST_GRP = "239.12.255.253";
+    public static final int DEFAULT_MCAST_PORT = 9523;
+    public static final int DEFAULT_INTERVAL = 1000;
+
+    private static final int MAGIC = 0x484D5052; // "HMPR"
+    private static final int FRAME_SIZE = 28;
+
+    /**
+     * Peers that have not been heard of for this number of intervals are considered gone
+     */
+    static final int EXPIRY_INTERVALS = 3;
+
+    private final long id = ThreadLocalRandom.current().nextLong();
+    private final int priority;
+    private final double maxLoad;
+    private final int interval;
+
+    private final InetAddress group;
+    private final int port;
+    private final MulticastSocket socket;
+
+    private final Map<Long, Peer> peers = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService announcer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "peer-announcer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Thread receiver = new Thread(this::receiveLoop, "peer-receiver");
+
+    private volatile double claimedLoad;
+    private volatile double availableLoad;
+    private volatile boolean running = true;
+    private int sequence;
+
+    public PeerCoordinator(int priority, double maxLoad) throws IOException {
+        this(DEFAULT_MCAST_GRP, DEFAULT_MCAST_PORT, DEFAULT_INTERVAL, priority, maxLoad);
+    }
+
+    public PeerCoordinator(String multicastGroup, int port, int interval, int priority, double maxLoad) throws IOException {
+        this.group = InetAddress.getByName(multicastGroup);
+        this.port = port;
+        this.interval = interval;
+        this.priority = priority;
+        this.maxLoad = maxLoad;
+
+        // several instances may run on the same host (or in the same JVM)
+        socket = new MulticastSocket(null);
+        socket.setReuseAddress(true);
+        socket.bind(new InetSocketAddress(port));
+        socket.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+        socket.setSoTimeout(interval);
+        socket.joinGroup(group);
+    }
+
+    public void start() {
+        receiver.setDaemon(true);
+        receiver.start();
+        announcer.scheduleAtFixedRate(this::announce, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @param claimed the load (in Watt) that this instance currently draws
+     * @param available the load (in Watt) that this instance could take right now - limited to the maximum load
+     */
+    public void setLoad(double claimed, double available) {
+        this.claimedLoad = claimed;
+        this.availableLoad = Math.max(0, Math.min(maxLoad, available));
+    }
+
+    /**
+     * @return the number of other instances that are currently alive
+     */
+    public int getPeerCount() {
+        expirePeers(System.currentTimeMillis());
+        return peers.size();
+    }
+
+    /**
+     * Computes the part of the measured surplus that this instance may use.
+     * @param surplus the surplus as measured by the energy meter (in Watt)
+     * @return the change in load (in Watt) that this instance should apply. Positive values allow to draw more power.
+     */
+    public double shareSurplus(double surplus) {
+        expirePeers(System.currentTimeMillis());
+
+        List<Peer> all = new ArrayList<>(peers.values());
+        Peer self = new Peer(id, priority, claimedLoad, availableLoad, System.currentTimeMillis());
+        all.add(self);
+        all.sort(Comparator.comparingInt((Peer p) -> p.priority).reversed().thenComparingLong(p -> p.id));
+
+        // the meter already sees the claimed loads as consumption
+        double pool = surplus;
+        for (Peer peer : all) {
+            pool += peer.claimedLoad;
+        }
+
+        for (Peer peer : all) {
+            double share = Math.max(0, Math.min(peer.availableLoad, pool));
+            if (peer.id == id) {
+                return share - self.claimedLoad;
+            }
+            pool -= share;
+        }
+
+        return surplus; // not reached
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        announcer.shutdownNow();
+        socket.close();
+    }
+
+    private void announce() {
+        ByteBuffer buffer = ByteBuffer.allocate(FRAME_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putLong(id);
+        buffer.putInt(sequence++);
+        buffer.putInt(priority);
+        buffer.putInt((int) claimedLoad);
+        buffer.putInt((int) availableLoad);
+
+        try {
+            socket.send(new DatagramPacket(buffer.array(), FRAME_SIZE, group, port));
+        } catch (IOException e) {
+            log.warn("Could not announce to peers: {}", e.toString());
+        }
+    }
+
+    private void receiveLoop() {
+        byte[] bytes = new byte[FRAME_SIZE];
+        DatagramPacket packet = new DatagramPacket(bytes, bytes.length);
+
+        while (running) {
+            try {
+                packet.setLength(bytes.length);
+                socket.receive(packet);
+                handleFrame(ByteBuffer.wrap(bytes, 0, packet.getLength()));
+            } catch (SocketTimeoutException e) {
+                // check running flag and try again
+            } catch (IOException e) {
+                if (running) {
+                    log.warn("Could not receive from peers: {}", e.toString());
+                }
+            }
+        }
+    }
+
+    private void handleFrame(ByteBuffer buffer) {
+        if (buffer.remaining() < FRAME_SIZE || buffer.getInt() != MAGIC) {
+            return;
+        }
+
+        long peerId = buffer.getLong();
+        buffer.getInt(); // sequence number - not used yet
+        int peerPriority = buffer.getInt();
+        int peerLoad = buffer.getInt();
+        int peerAvailableLoad = buffer.getInt();
+
+        if (peerId == id) {
+            return;
+        }
+
+        Peer peer = new Peer(peerId, peerPriority, peerLoad, peerAvailableLoad, System.currentTimeMillis());
+        if (peers.put(peerId, peer) == null) {
+            log.info("New peer {} with priority {}", Long.toHexString(peerId), peerPriority);
+        }
+    }
+
+    private void expirePeers(long now) {
+        long maxAge = (long) EXPIRY_INTERVALS * interval;
+        peers.values().removeIf(peer -> {
+            boolean expired = now - peer.lastSeen > maxAge;
+            if (expired) {
+                log.info("Lost peer {}", Long.toHexString(peer.id));
+            }
+            return expired;
+        });
+    }
+
+    private static class Peer {
+        private final long id;
+        private final int priority;
+        private final double claimedLoad;
+        private final double availableLoad;
+        private final long lastSeen;
+
+        Peer(long id, int priority, double claimedLoad, double availableLoad, long lastSeen) {
+            this.id = id;
+            this.priority = priority;
+            this.claimedLoad = claimedLoad;
+            this.availableLoad = availableLoad;
+            this.lastSeen = lastSeen;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package sma.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.nio.ByteBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import sma.domain.HeatingState;
+import sma.domain.StateFrame;
+
+/**
+ * The {@link StateBroadcaster} sends the decoded state as a small {@link StateFrame} to a multicast group,
+ * so that other systems do not need to parse the SMA telegrams or poll the web server.
+ */
+public class StateBroadcaster implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(StateBroadcaster.class);
+
+    public static final String DEFAULT_MCAST_GRP = "239.12.255.252";
+    public static final int DEFAULT_MCAST_PORT = 9524;
+
+    private final MulticastSocket socket;
+    private final ByteBuffer buffer = ByteBuffer.allocate(StateFrame.SIZE);
+    private final DatagramPacket packet;
+
+    private long sequence;
+
+    public StateBroadcaster() throws IOException {
+        this(DEFAULT_MCAST_GRP, DEFAULT_MCAST_PORT);
+    }
+
+    public StateBroadcaster(String multicastGroup, int port) throws IOException {
+        this.socket = new MulticastSocket();
+        this.packet = new DatagramPacket(buffer.array(), StateFrame.SIZE, InetAddress.getByName(multicastGroup), port);
+    }
+
+    public void publish(HeatingState state) {
+        buffer.clear();
+        StateFrame.of(sequence++, state).encode(buffer);
+
+        try {
+            socket.send(packet);
+        } catch (IOException e) {
+            log.warn("Could not send state frame: {}", e.toString());
+        }
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+}
@@ -0,0 +1,55 @@
+package sma.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.nio.ByteBuffer;
+
+import sma.domain.StateFrame;
+
+/**
+ * Receives the frames sent by the {@link StateBroadcaster}.
+ */
+public class StateFeedReader implements Closeable {
+
+    private final MulticastSocket socket;
+    private final byte[] bytes = new byte[StateFrame.SIZE];
+    private final DatagramPacket packet = new DatagramPacket(bytes, bytes.length);
+
+    public StateFeedReader() throws IOException {
+        this(StateBroadcaster.DEFAULT_MCAST_GRP, StateBroadcaster.DEFAULT_MCAST_PORT, 0);
+    }
+
+    /**
+     * @param timeout the receive timeout in milliseconds - 0 waits forever
+     */
+    public StateFeedReader(String multicastGroup, int port, int timeout) throws IOException {
+        socket = new MulticastSocket(null);
+        socket.setReuseAddress(true);
+        socket.bind(new InetSocketAddress(port));
+        socket.setSoTimeout(timeout);
+        socket.joinGroup(InetAddress.getByName(multicastGroup));
+    }
+
+    /**
+     * Blocks until the next frame is received
+     * @throws IOException on timeout or if an invalid frame is received
+     */
+    public StateFrame receive() throws IOException {
+        packet.setLength(bytes.length);
+        socket.receive(packet);
+        try {
+            return StateFrame.decode(ByteBuffer.wrap(bytes, 0, packet.getLength()));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid state frame", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+}
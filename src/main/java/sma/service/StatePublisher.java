@@ -0,0 +1,37 @@
+package sma.service;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicReference;
+
+import sma.domain.ControllerState;
+import sma.domain.HeatingState;
+
+/**
+ * The {@link StatePublisher} holds the latest {@link HeatingState} snapshot.
+ * It is updated after every heater pulse and after every control cycle.
+ * Writers replace the snapshot atomically, readers only need a single volatile read.
+ */
+public class StatePublisher {
+
+    private final AtomicReference<HeatingState> state = new AtomicReference<>(HeatingState.NONE);
+
+    private final HeaterMeterService heaterMeter;
+
+    public StatePublisher(HeaterMeterService heaterMeter) {
+        this.heaterMeter = heaterMeter;
+        heaterMeter.setPulseListener(this::publishHeater);
+        publishHeater();
+    }
+
+    public HeatingState get() {
+        return state.get();
+    }
+
+    public void publish(ControllerState controller) {
+        state.updateAndGet(s -> new HeatingState(Instant.now(), heaterMeter.getReading(), controller));
+    }
+
+    private void publishHeater() {
+        state.updateAndGet(s -> s.withTimestamp(Instant.now()).withHeater(heaterMeter.getReading()));
+    }
+}
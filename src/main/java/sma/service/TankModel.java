@@ -0,0 +1,189 @@
+package sma.service;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A simple thermal model of the water tank that is fitted online.
+ * <p>
+ * The temperature change between two sensor reads is modelled as
+ * <pre>dT = k * E - l * dt</pre>
+ * where E is the energy (Wh) the heater delivered and dt is the elapsed time (hours).
+ * The heating rate k and the standing loss l are estimated with recursive least squares.
+ * This allows to predict the temperature between the (slow) sensor reads.
+ * <p>
+ * Readings that are far off the prediction (e.g. a hot water draw or a sensor glitch) are not fitted.
+ * The model starts from such a reading and is not considered calibrated until it has seen enough samples again.
+ */
+public class TankModel {
+
+    private static final Logger log = LoggerFactory.getLogger(TankModel.class);
+
+    private static final double FORGETTING_FACTOR = 0.99;
+
+    /**
+     * About 150 liters of water: 1 / (1.163 Wh/(l*K) * 150 l)
+     */
+    private static final double INITIAL_HEATING_RATE = 0.0057;  // K / Wh
+
+    /**
+     * About 1 Kelvin per hour
+     */
+    private static final double INITIAL_STANDING_LOSS = 1.0; // K / h
+
+    private static final long MIN_SAMPLE_SECS = 10;
+    private static final int MIN_SAMPLES = 5;
+
+    // initial (and maximum) uncertainty of the parameters relative to the sensor noise
+    private static final double MAX_P00 = 0.1;
+    private static final double MAX_P11 = 1000;
+
+    // the parameters are trusted below this uncertainty: about 0.0006 K/Wh and 0.25 K/h
+    private static final double CALIBRATED_P00 = 1e-3;
+    private static final double CALIBRATED_P11 = 200;
+
+    // ... and if the recent predictions were close enough to the sensor readings
+    private static final double CALIBRATED_ERROR = 0.3;  // K
+    private static final double ERROR_SMOOTHING = 0.2;
+
+    // readings that differ more than this from the prediction are outliers
+    private static final double OUTLIER_ERROR = 2.0;  // K
+    // ... or more than this multiple of the mean error - but at least MIN_OUTLIER_ERROR (sensor resolution)
+    private static final double OUTLIER_FACTOR = 10;
+    private static final double MIN_OUTLIER_ERROR = 0.5;  // K
+
+    // parameters: heating rate (k) and standing loss (l)
+    private double k = INITIAL_HEATING_RATE;
+    private double l = INITIAL_STANDING_LOSS;
+
+    // covariance matrix of the estimate
+    private double p00 = MAX_P00;
+    private double p01 = 0;
+    private double p11 = MAX_P11;
+
+    private int samples;
+    private double meanError = Double.NaN;  // smoothed absolute prediction error
+
+    private double lastTemperature = Double.NaN;
+    private double lastWattHours;
+    private Instant lastTime;
+
+    /**
+     * Updates the model with a new sensor reading
+     * @param temperature the measured temperature in degrees Celsius
+     * @param wattHours the total energy counter of the heater meter
+     * @param time the time of the measurement
+     */
+    public synchronized void update(double temperature, double wattHours, Instant time) {
+        if (!Double.isNaN(lastTemperature)) {
+            double secs = Duration.between(lastTime, time).toMillis() / 1000.0;
+            if (secs < MIN_SAMPLE_SECS) {
+                return;  // too short to say anything about the slope
+            }
+
+            double x0 = wattHours - lastWattHours;
+            double x1 = -secs / 3600.0;
+            double y = temperature - lastTemperature;
+            double error = y - (k * x0 + l * x1);
+            if (isOutlier(error)) {
+                log.info("Temperature {} is {} K off the prediction - restarting calibration",
+                        temperature, String.format("%.1f", error));
+                samples = 0;
+                meanError = Double.NaN;
+            } else {
+                fit(x0, x1, y);
+            }
+        }
+
+        lastTemperature = temperature;
+        lastWattHours = wattHours;
+        lastTime = time;
+    }
+
+    /**
+     * Both parameters must have converged - this is not the case if the heater runs at constant power
+     * all the time, since heating and standing loss cannot be told apart then.
+     * @return true if the fitted parameters can be trusted
+     */
+    public synchronized boolean isCalibrated() {
+        return samples >= MIN_SAMPLES
+                && p00 < CALIBRATED_P00
+                && p11 < CALIBRATED_P11
+                && meanError < CALIBRATED_ERROR;
+    }
+
+    public synchronized double getHeatingRate() {
+        return k;
+    }
+
+    public synchronized double getStandingLoss() {
+        return l;
+    }
+
+    /**
+     * @param wattHours the current total energy counter of the heater meter
+     * @param time the time for the prediction
+     * @return the estimated temperature or <code>NaN</code> if no sensor reading is available yet
+     */
+    public synchronized double predict(double wattHours, Instant time) {
+        if (Double.isNaN(lastTemperature)) {
+            return Double.NaN;
+        }
+
+        double hours = Duration.between(lastTime, time).toMillis() / 3600_000.0;
+        return lastTemperature + k * (wattHours - lastWattHours) - l * hours;
+    }
+
+    /**
+     * @param wattHours the current total energy counter of the heater meter
+     * @param time the current time
+     * @param power the current heater power in Watt
+     * @param horizon how far to look ahead
+     * @return the estimated temperature after the given time span if the power stays constant
+     */
+    public synchronized double predict(double wattHours, Instant time, double power, Duration horizon) {
+        double hours = horizon.toMillis() / 3600_000.0;
+        double energy = power * hours;
+        return predict(wattHours, time) + k * energy - l * hours;
+    }
+
+    private boolean isOutlier(double error) {
+        double limit = Double.isNaN(meanError)
+                ? OUTLIER_ERROR
+                : Math.min(OUTLIER_ERROR, Math.max(MIN_OUTLIER_ERROR, OUTLIER_FACTOR * meanError));
+        return Math.abs(error) > limit;
+    }
+
+    private void fit(double x0, double x1, double y) {
+        // recursive least squares with exponential forgetting
+        double px0 = p00 * x0 + p01 * x1;
+        double px1 = p01 * x0 + p11 * x1;
+        double denom = FORGETTING_FACTOR + x0 * px0 + x1 * px1;
+
+        double g0 = px0 / denom;
+        double g1 = px1 / denom;
+
+        double error = y - (k * x0 + l * x1);
+        meanError = Double.isNaN(meanError)
+                ? Math.abs(error)
+                : (1 - ERROR_SMOOTHING) * meanError + ERROR_SMOOTHING * Math.abs(error);
+        k = Math.max(0, k + g0 * error);
+        l = Math.max(0, l + g1 * error);
+
+        p00 = (p00 - g0 * px0) / FORGETTING_FACTOR;
+        p01 = (p01 - g0 * px1) / FORGETTING_FACTOR;
+        p11 = (p11 - g1 * px1) / FORGETTING_FACTOR;
+
+        // prevent wind-up in directions without excitation (e.g. constant power) -
+        // scale the whole matrix so that it stays positive definite
+        double scale = Math.min(1.0, Math.min(MAX_P00 / p00, MAX_P11 / p11));
+        p00 *= scale;
+        p01 *= scale;
+        p11 *= scale;
+
+        samples++;
+    }
+}
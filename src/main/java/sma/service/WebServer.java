@@ -1,6 +1,10 @@
 package sma.service;
 
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.Map;
 import java.util.function.Supplier;
 
@@ -21,9 +25,16 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class WebServer {
 
+    /**
+     * The longest span that can be dumped. In normal operation the recorder covers a few hours,
+     * so a day back returns everything it still holds.
+     */
+    private static final long MAX_RECORDER_MINUTES = 24 * 60;
+
     private final HttpHandler ROUTES = new RoutingHandler()
             .get("/", this::handleRootRequest)
             .get("/status", this::handleStatusRequest)
+            .get("/recorder", this::handleRecorderRequest)
             .setFallbackHandler(this::handleNotFound);
 
     private final ObjectMapper mapper = new ObjectMapper()
@@ -32,15 +43,18 @@ public class WebServer {
 
     private Supplier<Map<String, Object>> supplier;
 
+    private FlightRecorder recorder;
+
     private Undertow server;
 
 
-    public WebServer(Supplier<Map<String, Object>> dataProvider) {
+    public WebServer(Supplier<Map<String, Object>> dataProvider, FlightRecorder recorder) {
         server = Undertow.builder()
                 .addHttpListener(7474, "0.0.0.0")
                 .setHandler(ROUTES)
                 .build();
         this.supplier = dataProvider;
+        this.recorder = recorder;
     }
 
     public void start() {
@@ -48,13 +62,54 @@ public class WebServer {
     }
 
     public void handleRootRequest(HttpServerExchange exchange) throws Exception {
-        sendResponse(exchange, 200, Map.of("entries", Arrays.asList("status")));
+        sendResponse(exchange, 200, Map.of("entries", Arrays.asList("status", "recorder")));
     }
 
     public void handleStatusRequest(HttpServerExchange exchange) throws Exception {
         sendResponse(exchange, 200, supplier.get());
     }
 
+    /**
+     * Dumps the flight recorder, e.g. <code>/recorder?minutes=10&amp;format=binary</code>
+     */
+    public void handleRecorderRequest(HttpServerExchange exchange) throws Exception {
+        String minutes = getQueryParameter(exchange, "minutes", "10");
+        String format = getQueryParameter(exchange, "format", "json");
+
+        long value;
+        try {
+            value = Long.parseLong(minutes);
+        } catch (NumberFormatException e) {
+            value = -1;
+        }
+        if (value < 1 || value > MAX_RECORDER_MINUTES) {
+            String message = "Invalid minutes: " + minutes + " (1.." + MAX_RECORDER_MINUTES + ")";
+            sendResponse(exchange, 400, new ErrorResponse(400, "Bad request", message));
+            return;
+        }
+        if (!"json".equals(format) && !"binary".equals(format)) {
+            sendResponse(exchange, 400, new ErrorResponse(400, "Bad request", "Invalid format: " + format + " (json, binary)"));
+            return;
+        }
+
+        Instant since = Instant.now().minus(Duration.ofMinutes(value));
+
+        if ("binary".equals(format)) {
+            ByteBuffer data = recorder.dumpBinary(since);
+            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/octet-stream");
+            exchange.getResponseHeaders().put(Headers.CONTENT_DISPOSITION, "attachment; filename=\"recorder.bin\"");
+            exchange.setStatusCode(200);
+            exchange.getResponseSender().send(data);
+        } else {
+            sendResponse(exchange, 200, recorder.dump(since));
+        }
+    }
+
+    private static String getQueryParameter(HttpServerExchange exchange, String name, String defaultValue) {
+        Deque<String> values = exchange.getQueryParameters().get(name);
+        return (values == null || values.isEmpty()) ? defaultValue : values.getFirst();
+    }
+
     @Data
     @AllArgsConstructor
     public static class ErrorResponse {
@@ -0,0 +1,220 @@
+package sma.service.modbus;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import sma.domain.em.DataBlock;
+import sma.service.MeterSource;
+
+/**
+ * The {@link ModbusMeterService} polls an energy meter or inverter via Modbus TCP.
+ * Which registers are read is described by a {@link ModbusRegisterMap}.
+ * <p>
+ * The connection is kept open between polls and re-established after errors. If a poll fails on a connection that
+ * was reused (e.g. after an idle timeout or a restart of the device), it is repeated once on a new connection.
+ * All register blocks of one poll are requested at once (pipelined) before the responses are read.
+ */
+public class ModbusMeterService implements MeterSource, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ModbusMeterService.class);
+
+    public static final int DEFAULT_PORT = 502;
+    public static final int DEFAULT_UNIT_ID = 1;
+    public static final int DEFAULT_POLL_INTERVAL = 1000;
+    public static final int DEFAULT_TIMEOUT = 5000;
+
+    private static final int MBAP_HEADER_LENGTH = 7;
+
+    private final String host;
+    private final int port;
+    private final int unitId;
+    private final int pollInterval;
+    private final int timeout;
+
+    private final ModbusRegisterMap registerMap;
+    private final List<int[]> blocks;
+
+    private Socket socket;
+    private DataInputStream in;
+    private OutputStream out;
+
+    private int transactionId;
+    private long nextPoll;
+
+    public ModbusMeterService(String host, int port, int unitId, int pollInterval, int timeout, ModbusRegisterMap registerMap) {
+        this.host = host;
+        this.port = port;
+        this.unitId = unitId;
+        this.pollInterval = pollInterval;
+        this.timeout = timeout;
+        this.registerMap = registerMap;
+        this.blocks = registerMap.toBlocks();
+    }
+
+    @Override
+    public DataBlock read() throws IOException {
+        waitForNextPoll();
+
+        if (socket != null) {
+            try {
+                return poll();
+            } catch (IOException e) {
+                log.info("Modbus connection lost ({}) - reconnecting", e.toString());
+            }
+        }
+        return poll();
+    }
+
+    @Override
+    public void close() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.debug("Could not close connection", e);
+            }
+            socket = null;
+        }
+    }
+
+    private DataBlock poll() throws IOException {
+        try {
+            connect();
+            int[][] values = readBlocks();
+            return toDataBlock(values);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void waitForNextPoll() throws IOException {
+        long now = System.currentTimeMillis();
+        long delay = nextPoll - now;
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for next poll");
+            }
+        }
+        nextPoll = Math.max(now, nextPoll) + pollInterval;
+    }
+
+    private void connect() throws IOException {
+        if (socket != null && socket.isConnected() && !socket.isClosed()) {
+            return;
+        }
+
+        log.info("Connecting to Modbus device at {}:{}", host, port);
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(timeout);
+        socket.connect(new InetSocketAddress(host, port), timeout);
+        in = new DataInputStream(socket.getInputStream());
+        out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    private int[][] readBlocks() throws IOException {
+        int firstId = transactionId;
+
+        // send all requests first, then collect the responses
+        for (int[] block : blocks) {
+            writeRequest(nextTransactionId(), block[0], block[1]);
+        }
+        out.flush();
+
+        int[][] values = new int[blocks.size()][];
+        for (int i = 0; i < blocks.size(); i++) {
+            ByteBuffer response = readResponse();
+            int index = (response.getShort(0) - firstId) & 0xFFFF;
+            if (index >= blocks.size() || values[index] != null) {
+                throw new IOException("Unexpected transaction id: " + (response.getShort(0) & 0xFFFF));
+            }
+            values[index] = parseRegisters(response, blocks.get(index)[1]);
+        }
+        return values;
+    }
+
+    private int nextTransactionId() {
+        int id = transactionId;
+        transactionId = (transactionId + 1) & 0xFFFF;
+        return id;
+    }
+
+    private void writeRequest(int id, int address, int count) throws IOException {
+        ByteBuffer request = ByteBuffer.allocate(12);
+        request.putShort((short) id);
+        request.putShort((short) 0);         // protocol id
+        request.putShort((short) 6);         // remaining length
+        request.put((byte) unitId);
+        request.put((byte) registerMap.getFunction());
+        request.putShort((short) address);
+        request.putShort((short) count);
+        out.write(request.array());
+    }
+
+    private ByteBuffer readResponse() throws IOException {
+        byte[] header = new byte[MBAP_HEADER_LENGTH];
+        in.readFully(header);
+        int length = ((header[4] & 0xFF) << 8) | (header[5] & 0xFF);
+        if (length < 2 || length > 256) {
+            throw new IOException("Invalid Modbus frame length: " + length);
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(MBAP_HEADER_LENGTH + length - 1);
+        frame.put(header);
+        in.readFully(frame.array(), MBAP_HEADER_LENGTH, length - 1);
+        return frame;
+    }
+
+    private int[] parseRegisters(ByteBuffer frame, int count) throws IOException {
+        int function = frame.get(MBAP_HEADER_LENGTH) & 0xFF;
+        if (function == (registerMap.getFunction() | 0x80)) {
+            throw new IOException("Modbus exception code: " + (frame.get(MBAP_HEADER_LENGTH + 1) & 0xFF));
+        }
+        if (function != registerMap.getFunction()) {
+            throw new IOException("Unexpected Modbus function code: " + function);
+        }
+
+        int byteCount = frame.get(MBAP_HEADER_LENGTH + 1) & 0xFF;
+        if (byteCount != 2 * count || frame.capacity() < MBAP_HEADER_LENGTH + 2 + byteCount) {
+            throw new IOException("Unexpected Modbus response size: " + byteCount);
+        }
+
+        int[] registers = new int[count];
+        for (int i = 0; i < count; i++) {
+            registers[i] = frame.getShort(MBAP_HEADER_LENGTH + 2 + 2 * i) & 0xFFFF;
+        }
+        return registers;
+    }
+
+    private DataBlock toDataBlock(int[][] values) {
+        DataBlock.Builder builder = DataBlock.builder();
+        for (ModbusRegisterMap.Register reg : registerMap.getRegisters()) {
+            reg.apply(builder, address -> registerAt(values, address));
+        }
+        return builder.build();
+    }
+
+    private int registerAt(int[][] values, int address) {
+        for (int i = 0; i < blocks.size(); i++) {
+            int start = blocks.get(i)[0];
+            if (address >= start && address < start + blocks.get(i)[1]) {
+                return values[i][address - start];
+            }
+        }
+        throw new IllegalStateException("Register not requested: " + address);
+    }
+}
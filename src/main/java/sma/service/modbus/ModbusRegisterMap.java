@@ -0,0 +1,334 @@
+package sma.service.modbus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Properties;
+import java.util.function.IntUnaryOperator;
+import java.util.function.ObjDoubleConsumer;
+
+import sma.domain.em.DataBlock;
+
+/**
+ * Describes which registers of a Modbus device hold which values of a {@link DataBlock}.
+ * <p>
+ * A map is usually loaded from a properties file, either a bundled profile (e.g. <code>sdm630</code>)
+ * or a file on disk:
+ * <pre>
+ * # holding (function 3, default) or input (function 4)
+ * registers=input
+ *
+ * # &lt;field&gt;.address = register address (0-based)
+ * # &lt;field&gt;.type = uint16, int16, uint32 (default), int32, uint64, int64 or float32
+ * # &lt;field&gt;.scale = converts the register value to W or Wh (default 1) - use a negative value to invert the sign
+ * # &lt;field&gt;.scaleFactor = address of an int16 power-of-ten scale factor register (SunSpec style, optional)
+ * powerNet.address=52
+ * powerNet.type=float32
+ * </pre>
+ * The fields are listed in {@link Field}. <code>powerNet</code> is a signed value (positive = import from the grid)
+ * and is split into <code>powerIn</code> and <code>powerOut</code>. A map needs either <code>powerNet</code> or
+ * both <code>powerIn</code> and <code>powerOut</code>.
+ */
+public class ModbusRegisterMap {
+
+    /**
+     * The maximum number of registers in a single read request
+     */
+    public static final int MAX_BLOCK_SIZE = 125;
+
+    public static final int FC_READ_HOLDING_REGISTERS = 0x03;
+    public static final int FC_READ_INPUT_REGISTERS = 0x04;
+
+    private static final Set<String> ATTRIBUTES = Set.of("address", "type", "scale", "scaleFactor");
+
+    public enum Type {
+        UINT16(1),
+        INT16(1),
+        UINT32(2),
+        INT32(2),
+        UINT64(4),
+        INT64(4),
+        FLOAT32(2);
+
+        private final int words;
+
+        Type(int words) {
+            this.words = words;
+        }
+
+        public int getWords() {
+            return words;
+        }
+
+        double decode(long raw) {
+            switch (this) {
+            case INT16:
+                return (short) raw;
+            case INT32:
+                return (int) raw;
+            case FLOAT32:
+                return Float.intBitsToFloat((int) raw);
+            case UINT64:
+                return raw >= 0 ? raw : raw + 0x1p64;
+            default:
+                return raw;
+            }
+        }
+    }
+
+    /**
+     * The values of a {@link DataBlock} that can be mapped. Power is expected in W, energy in Wh.
+     */
+    public enum Field {
+        SERIAL_NUMBER("serialNumber", (b, v) -> b.serialNumber(Math.round(v))),
+        POWER_IN("powerIn", (b, v) -> b.powerIn(deciWatts(v))),
+        POWER_OUT("powerOut", (b, v) -> b.powerOut(deciWatts(v))),
+        POWER_NET("powerNet", (b, v) -> b.powerIn(deciWatts(Math.max(0, v))).powerOut(deciWatts(Math.max(0, -v)))),
+        ENERGY_IN("energyIn", (b, v) -> b.energyIn(wattSeconds(v))),
+        ENERGY_OUT("energyOut", (b, v) -> b.energyOut(wattSeconds(v))),
+        POWER_IN_L1("powerInL1", (b, v) -> b.powerInL1(deciWatts(v))),
+        POWER_OUT_L1("powerOutL1", (b, v) -> b.powerOutL1(deciWatts(v))),
+        POWER_NET_L1("powerNetL1", (b, v) -> b.powerInL1(deciWatts(Math.max(0, v))).powerOutL1(deciWatts(Math.max(0, -v)))),
+        POWER_IN_L2("powerInL2", (b, v) -> b.powerInL2(deciWatts(v))),
+        POWER_OUT_L2("powerOutL2", (b, v) -> b.powerOutL2(deciWatts(v))),
+        POWER_NET_L2("powerNetL2", (b, v) -> b.powerInL2(deciWatts(Math.max(0, v))).powerOutL2(deciWatts(Math.max(0, -v)))),
+        POWER_IN_L3("powerInL3", (b, v) -> b.powerInL3(deciWatts(v))),
+        POWER_OUT_L3("powerOutL3", (b, v) -> b.powerOutL3(deciWatts(v))),
+        POWER_NET_L3("powerNetL3", (b, v) -> b.powerInL3(deciWatts(Math.max(0, v))).powerOutL3(deciWatts(Math.max(0, -v))));
+
+        private final String key;
+        private final ObjDoubleConsumer<DataBlock.Builder> setter;
+
+        Field(String key, ObjDoubleConsumer<DataBlock.Builder> setter) {
+            this.key = key;
+            this.setter = setter;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        private static long deciWatts(double watts) {
+            return Math.round(watts * 10);
+        }
+
+        private static long wattSeconds(double wattHours) {
+            return Math.round(wattHours * 3600);
+        }
+    }
+
+    private final List<Register> registers = new ArrayList<>();
+    private int function = FC_READ_HOLDING_REGISTERS;
+
+    /**
+     * @param nameOrPath the name of a bundled profile (e.g. <code>sdm630</code>) or the path to a properties file
+     * @throws IOException if the map cannot be read
+     * @throws IllegalArgumentException if the map contains invalid entries
+     */
+    public static ModbusRegisterMap load(String nameOrPath) throws IOException {
+        Properties props = new Properties();
+        Path path = Paths.get(nameOrPath);
+        if (Files.isRegularFile(path)) {
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                props.load(reader);
+            }
+        } else {
+            try (InputStream in = ModbusRegisterMap.class.getResourceAsStream("/modbus/" + nameOrPath + ".properties")) {
+                if (in == null) {
+                    throw new IOException("Unknown Modbus register map: " + nameOrPath);
+                }
+                props.load(in);
+            }
+        }
+        return fromProperties(props);
+    }
+
+    public static ModbusRegisterMap fromProperties(Properties props) {
+        ModbusRegisterMap map = new ModbusRegisterMap();
+
+        String registerKind = props.getProperty("registers", "holding");
+        if ("input".equals(registerKind)) {
+            map.function = FC_READ_INPUT_REGISTERS;
+        } else if (!"holding".equals(registerKind)) {
+            throw new IllegalArgumentException("registers should be 'holding' or 'input': " + registerKind);
+        }
+
+        for (String key : props.stringPropertyNames()) {
+            int dot = key.indexOf('.');
+            if (key.equals("registers")) {
+                continue;
+            }
+            if (dot < 0 || findField(key.substring(0, dot)) == null || !ATTRIBUTES.contains(key.substring(dot + 1))) {
+                throw new IllegalArgumentException("Unknown key: " + key);
+            }
+            if (!props.containsKey(key.substring(0, dot) + ".address")) {
+                throw new IllegalArgumentException("Missing address for " + key);
+            }
+        }
+
+        for (Field field : Field.values()) {
+            String address = props.getProperty(field.getKey() + ".address");
+            if (address == null) {
+                continue;
+            }
+
+            String type = props.getProperty(field.getKey() + ".type", "uint32");
+            String scale = props.getProperty(field.getKey() + ".scale", "1");
+            String scaleFactor = props.getProperty(field.getKey() + ".scaleFactor", "-1");
+
+            try {
+                map.add(field,
+                        Integer.parseInt(address.trim()),
+                        Type.valueOf(type.trim().toUpperCase()),
+                        Double.parseDouble(scale.trim()),
+                        Integer.parseInt(scaleFactor.trim()));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid entry for " + field.getKey() + ": " + e.getMessage(), e);
+            }
+        }
+
+        Set<Field> mapped = EnumSet.noneOf(Field.class);
+        map.registers.forEach(reg -> mapped.add(reg.getField()));
+        if (!mapped.contains(Field.POWER_NET) && !(mapped.contains(Field.POWER_IN) && mapped.contains(Field.POWER_OUT))) {
+            throw new IllegalArgumentException("Either powerNet or powerIn and powerOut must be mapped");
+        }
+        return map;
+    }
+
+    public ModbusRegisterMap add(Field field, int address, Type type, double scale) {
+        return add(field, address, type, scale, -1);
+    }
+
+    /**
+     * @param field the field of the data block
+     * @param address the register address
+     * @param type the data type of the register
+     * @param scale converts the register value to W or Wh
+     * @param scaleFactorAddress the address of an int16 power-of-ten scale factor register, or -1
+     * @return this
+     */
+    public ModbusRegisterMap add(Field field, int address, Type type, double scale, int scaleFactorAddress) {
+        if (address < 0 || address + type.getWords() > 0x10000) {
+            throw new IllegalArgumentException("invalid address " + address);
+        }
+        registers.add(new Register(field, address, type, scale, scaleFactorAddress));
+        registers.sort(Comparator.comparingInt(Register::getAddress));
+        return this;
+    }
+
+    /**
+     * @return the Modbus function code to read the registers
+     */
+    public int getFunction() {
+        return function;
+    }
+
+    public ModbusRegisterMap setFunction(int function) {
+        if (function != FC_READ_HOLDING_REGISTERS && function != FC_READ_INPUT_REGISTERS) {
+            throw new IllegalArgumentException("unsupported function code " + function);
+        }
+        this.function = function;
+        return this;
+    }
+
+    public List<Register> getRegisters() {
+        return Collections.unmodifiableList(registers);
+    }
+
+    /**
+     * Merges the registers (including scale factor registers) into as few contiguous blocks as possible.
+     * Unmapped registers between two mapped ones are read, too.
+     * @return the blocks as pairs of start address and number of registers
+     */
+    public List<int[]> toBlocks() {
+        List<int[]> ranges = new ArrayList<>();
+        for (Register reg : registers) {
+            ranges.add(new int[] { reg.getAddress(), reg.getType().getWords() });
+            if (reg.scaleFactorAddress >= 0) {
+                ranges.add(new int[] { reg.scaleFactorAddress, 1 });
+            }
+        }
+        ranges.sort(Comparator.comparingInt((int[] r) -> r[0]));
+
+        List<int[]> blocks = new ArrayList<>();
+        int[] current = null;
+        for (int[] range : ranges) {
+            int end = range[0] + range[1];
+            if (current != null && end - current[0] <= MAX_BLOCK_SIZE) {
+                current[1] = Math.max(current[1], end - current[0]);
+            } else {
+                current = new int[] { range[0], range[1] };
+                blocks.add(current);
+            }
+        }
+        return blocks;
+    }
+
+    private static Field findField(String key) {
+        for (Field field : Field.values()) {
+            if (field.getKey().equals(key)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    public static class Register {
+        private final Field field;
+        private final int address;
+        private final Type type;
+        private final double scale;
+        private final int scaleFactorAddress;
+
+        Register(Field field, int address, Type type, double scale, int scaleFactorAddress) {
+            this.field = field;
+            this.address = address;
+            this.type = type;
+            this.scale = scale;
+            this.scaleFactorAddress = scaleFactorAddress;
+        }
+
+        public Field getField() {
+            return field;
+        }
+
+        public int getAddress() {
+            return address;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * @param registerAt returns the (unsigned 16-bit) value of the register at the given address
+         * @return the value in W or Wh
+         */
+        double decode(IntUnaryOperator registerAt) {
+            long raw = 0;
+            for (int w = 0; w < type.getWords(); w++) {
+                raw = (raw << 16) | registerAt.applyAsInt(address + w);
+            }
+
+            double value = type.decode(raw) * scale;
+            if (scaleFactorAddress >= 0) {
+                value *= Math.pow(10, (short) registerAt.applyAsInt(scaleFactorAddress));
+            }
+            return value;
+        }
+
+        void apply(DataBlock.Builder builder, IntUnaryOperator registerAt) {
+            field.setter.accept(builder, decode(registerAt));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package sma.domain;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+
+public class StateFrameTest {
+
+    private static final Instant NOW = Instant.ofEpochMilli(1_700_000_000_000L);
+
+    @Test
+    public void roundTrip() {
+        ControllerState ctrl = new ControllerState(NOW.minusMillis(200), -350, 150, 500, 150,
+                -100, -200, -50, 52.5, 53.0, 4, false, false);
+        HeatingState state = new HeatingState(NOW, new HeaterReading(4, 4, 11, 420, 420, null, 0), ctrl);
+
+        StateFrame frame = encodeAndDecode(StateFrame.of(7, state));
+
+        assertEquals(7, frame.getSequence());
+        assertEquals(NOW, frame.getTimestamp());
+        assertEquals(NOW.minusMillis(200), frame.getMeterTimestamp());
+        assertEquals(-350, frame.getSurplus());
+        assertEquals(150, frame.getControlSurplus());
+        assertEquals(-100, frame.getPowerL1());
+        assertEquals(-200, frame.getPowerL2());
+        assertEquals(-50, frame.getPowerL3());
+        assertEquals(420, frame.getHeaterPower());
+        assertEquals(4, frame.getPfcLevel());
+        assertEquals(4, frame.getEstimatedLevel());
+        assertEquals(52.5, frame.getTemperature(), 0.001);
+        assertFalse(frame.isTemperatureStop());
+        assertFalse(frame.isSleeping());
+    }
+
+    @Test
+    public void cycleWithoutTelegram() {
+        ControllerState ctrl = new ControllerState(null, Double.NaN, Double.NaN, Double.NaN, Double.NaN,
+                Double.NaN, Double.NaN, Double.NaN, 61, 61, -1, true, false);
+        HeatingState state = new HeatingState(NOW, HeaterReading.NONE, ctrl);
+
+        StateFrame frame = encodeAndDecode(StateFrame.of(8, state));
+
+        assertNull(frame.getMeterTimestamp());
+        assertTrue(Float.isNaN(frame.getSurplus()));
+        assertTrue(Float.isNaN(frame.getControlSurplus()));
+        assertTrue(Float.isNaN(frame.getPowerL1()));
+        assertTrue(frame.isTemperatureStop());
+    }
+
+    private static StateFrame encodeAndDecode(StateFrame frame) {
+        ByteBuffer buffer = ByteBuffer.allocate(StateFrame.SIZE);
+        frame.encode(buffer);
+        assertEquals(StateFrame.SIZE, buffer.position());
+        buffer.flip();
+        return StateFrame.decode(buffer);
+    }
+}
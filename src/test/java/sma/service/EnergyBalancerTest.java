@@ -0,0 +1,108 @@
+package sma.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+
+import sma.domain.em.DataBlock;
+
+public class EnergyBalancerTest {
+
+    private static final long SERIAL = 1900123456L;
+    private static final int STEP_SECS = 5;
+
+    private final EnergyBalancer balancer = new EnergyBalancer();
+
+    // 10:00:00 is the start of a balancing interval
+    private Instant time = Instant.parse("2022-06-01T10:00:00Z");
+    private long energyIn = 1_000_000_000L;
+    private long energyOut = 2_000_000_000L;
+
+    @Test
+    public void averagesPowerAndDrivesTheBalanceTowardsZero() {
+        assertTrue(Double.isNaN(update(0, 0)));
+
+        // 1 kW export for 5 sec, 14:50 min left in the interval
+        double surplus = update(0, 1000);
+        assertEquals(1000 + 5000.0 / (15 * 60 - 10), surplus, 0.01);
+        assertEquals(5000, balancer.getBalance());
+
+        // 1 kW import cancels the balance
+        surplus = update(1000, 0);
+        assertEquals(-1000, surplus, 0.01);
+        assertEquals(0, balancer.getBalance());
+    }
+
+    @Test
+    public void gapRestartsTheBalance() {
+        update(0, 0);
+        update(0, 0);
+
+        // two hours of 2 kW export during a temperature stop ...
+        time = time.plus(Duration.ofHours(2));
+        energyOut += 2000L * 7200;
+        assertTrue(Double.isNaN(balancer.update(block(SERIAL), time)));
+
+        // ... do not count for the following import
+        double surplus = update(500, 0);
+        assertEquals(-500 - 2500.0 / (15 * 60 - 15), surplus, 0.01);
+        assertEquals(-2500, balancer.getBalance());
+    }
+
+    @Test
+    public void counterResetRestartsTheBalance() {
+        update(0, 0);
+        update(0, 1000);
+
+        energyOut = 0;
+        assertTrue(Double.isNaN(update(0, 0)));
+        assertEquals(0, update(0, 0), 0.01);
+        assertEquals(0, balancer.getBalance());
+    }
+
+    @Test
+    public void serialNumberChangeRestartsTheBalance() {
+        update(0, 0);
+        update(0, 1000);
+
+        time = time.plusSeconds(STEP_SECS);
+        assertTrue(Double.isNaN(balancer.update(block(SERIAL + 1), time)));
+
+        time = time.plusSeconds(STEP_SECS);
+        assertEquals(0, balancer.update(block(SERIAL + 1), time), 0.01);
+        assertEquals(0, balancer.getBalance());
+    }
+
+    @Test
+    public void deltaAcrossIntervalBoundaryIsSplit() {
+        time = time.plus(Duration.ofMinutes(15)).minusSeconds(7);
+        update(0, 0);
+
+        // 2 sec in the old interval, 3 sec in the new one
+        double surplus = update(0, 1000);
+        assertEquals(3000, balancer.getBalance());
+        assertEquals(1000 + 3000.0 / (15 * 60 - 3), surplus, 0.01);
+    }
+
+    /**
+     * Advances the time by one step with the given constant power (in Watt)
+     */
+    private double update(long powerIn, long powerOut) {
+        time = time.plusSeconds(STEP_SECS);
+        energyIn += powerIn * STEP_SECS;
+        energyOut += powerOut * STEP_SECS;
+        return balancer.update(block(SERIAL), time);
+    }
+
+    private DataBlock block(long serialNumber) {
+        return DataBlock.builder()
+                .serialNumber(serialNumber)
+                .energyIn(energyIn)
+                .energyOut(energyOut)
+                .build();
+    }
+}
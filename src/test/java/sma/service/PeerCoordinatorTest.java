@@ -0,0 +1,162 @@
+package sma.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs several {@link PeerCoordinator} instances in one JVM over multicast loopback.
+ * Every test uses its own free port on a group that is not used in production.
+ */
+public class PeerCoordinatorTest {
+
+    private static final String GROUP = "239.255.77.77";
+    private static final int INTERVAL = 200;
+    private static final int TIMEOUT = 20 * INTERVAL;
+    private static final double MAX_LOAD = 1160;
+
+    private final List<PeerCoordinator> coordinators = new ArrayList<>();
+
+    @AfterEach
+    public void closeAll() {
+        coordinators.forEach(PeerCoordinator::close);
+    }
+
+    @Test
+    public void blockedHighPriorityPeerLeavesSurplusToOthers() throws Exception {
+        int port = freePort();
+        PeerCoordinator high = create(port, 10);
+        PeerCoordinator low = create(port, 1);
+
+        high.setLoad(0, 0);
+        low.setLoad(0, MAX_LOAD);
+
+        awaitPeers(2);
+
+        assertEquals(1000, low.shareSurplus(1000), 0.1);
+        assertEquals(0, high.shareSurplus(1000), 0.1);
+    }
+
+    @Test
+    public void highPriorityPeerGetsOneStepFirst() throws Exception {
+        int port = freePort();
+        PeerCoordinator high = create(port, 10);
+        PeerCoordinator low = create(port, 1);
+
+        high.setLoad(300, 500);
+        low.setLoad(300, 500);
+
+        awaitPeers(2);
+
+        // pool = 250 + 600 = 850 -> high takes 500, low keeps 350
+        assertEquals(200, high.shareSurplus(250), 0.1);
+        assertEquals(50, low.shareSurplus(250), 0.1);
+
+        // importing: pool = -200 + 600 = 400 -> the low priority peer sheds its load first
+        assertEquals(100, high.shareSurplus(-200), 0.1);
+        assertEquals(-300, low.shareSurplus(-200), 0.1);
+    }
+
+    @Test
+    public void holdingPeerKeepsItsLoad() throws Exception {
+        int port = freePort();
+        PeerCoordinator high = create(port, 10);
+        PeerCoordinator low = create(port, 1);
+
+        // close to the temperature limit: no step up, but no step down either
+        high.setLoad(500, 500);
+        low.setLoad(0, MAX_LOAD);
+
+        awaitPeers(2);
+
+        // pool = 300 + 500 = 800 -> high keeps 500, low gets the rest
+        assertEquals(0, high.shareSurplus(300), 0.1);
+        assertEquals(300, low.shareSurplus(300), 0.1);
+
+        // nothing left for the low priority peer
+        assertEquals(0, high.shareSurplus(0), 0.1);
+        assertEquals(0, low.shareSurplus(0), 0.1);
+    }
+
+    @Test
+    public void allocationsConvergeWithinOneInterval() throws Exception {
+        int port = freePort();
+        PeerCoordinator high = create(port, 10);
+        PeerCoordinator mid = create(port, 5);
+        PeerCoordinator low = create(port, 1);
+
+        high.setLoad(0, 0);
+        mid.setLoad(0, 200);
+        low.setLoad(0, MAX_LOAD);
+
+        awaitPeers(3);
+        assertEquals(400, low.shareSurplus(600), 0.1);
+
+        long start = System.currentTimeMillis();
+        high.setLoad(300, 500);
+
+        // pool = 600 + 300 = 900 -> high 500, mid 200, low 200
+        await(() -> low.shareSurplus(600) == 200
+                && mid.shareSurplus(600) == 200
+                && high.shareSurplus(600) == 200, TIMEOUT);
+
+        // one interval in theory - allow for a busy machine
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(elapsed <= 5 * INTERVAL, "converged after " + elapsed + " ms");
+    }
+
+    @Test
+    public void peersExpireAfterExpiryIntervals() throws Exception {
+        int port = freePort();
+        PeerCoordinator first = create(port, 10);
+        PeerCoordinator second = create(port, 1);
+
+        awaitPeers(2);
+
+        long start = System.currentTimeMillis();
+        second.close();
+
+        await(() -> first.getPeerCount() == 0, TIMEOUT);
+
+        // the last announcement was at most one interval before the close
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(elapsed >= (PeerCoordinator.EXPIRY_INTERVALS - 1) * INTERVAL, "expired after " + elapsed + " ms");
+        assertTrue(elapsed <= (PeerCoordinator.EXPIRY_INTERVALS + 4) * INTERVAL, "expired after " + elapsed + " ms");
+    }
+
+    private PeerCoordinator create(int port, int priority) throws Exception {
+        PeerCoordinator coordinator = new PeerCoordinator(GROUP, port, INTERVAL, priority, MAX_LOAD);
+        coordinators.add(coordinator);
+        coordinator.start();
+        return coordinator;
+    }
+
+    private void awaitPeers(int count) throws InterruptedException {
+        await(() -> coordinators.stream().allMatch(c -> c.getPeerCount() == count - 1), TIMEOUT);
+
+        // make sure that the latest loads have been announced
+        Thread.sleep(INTERVAL + 50);
+    }
+
+    private static int freePort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void await(BooleanSupplier condition, long timeout) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < end, "condition not met within " + timeout + " ms");
+            Thread.sleep(5);
+        }
+    }
+}
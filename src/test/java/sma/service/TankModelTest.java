@@ -0,0 +1,104 @@
+package sma.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+
+public class TankModelTest {
+
+    private static final double HEATING_RATE = 0.004;  // K / Wh
+    private static final double STANDING_LOSS = 0.5;   // K / h
+    private static final int SAMPLE_SECS = 50;         // 10 iterations of 5 sec
+
+    private final TankModel model = new TankModel();
+
+    private double temperature = 40;
+    private double wattHours = 0;
+    private Instant time = Instant.parse("2022-06-01T10:00:00Z");
+
+    @Test
+    public void notCalibratedAtConstantPower() {
+        for (int i = 0; i < 200; i++) {
+            step(800);
+        }
+
+        // heating and standing loss cannot be separated at constant power
+        assertFalse(model.isCalibrated());
+    }
+
+    @Test
+    public void calibratedWithHeatingAndCoolingPhases() {
+        for (int i = 0; i < 200; i++) {
+            // alternate between 10 minutes of heating and 10 minutes of standing
+            step((i / 12) % 2 == 0 ? 800 : 0);
+        }
+
+        assertTrue(model.isCalibrated());
+        assertEquals(HEATING_RATE, model.getHeatingRate(), 0.0005);
+        assertEquals(STANDING_LOSS, model.getStandingLoss(), 0.2);
+    }
+
+    @Test
+    public void notCalibratedWithFewSamples() {
+        for (int i = 0; i < 3; i++) {
+            step(i % 2 == 0 ? 800 : 0);
+        }
+
+        assertFalse(model.isCalibrated());
+    }
+
+    @Test
+    public void hotWaterDrawDoesNotCorruptTheModel() {
+        for (int i = 0; i < 200; i++) {
+            step((i / 12) % 2 == 0 ? 800 : 0);
+        }
+        assertTrue(model.isCalibrated());
+
+        // a shower: the tank drops by 15 K within one sample
+        temperature -= 15;
+        step(0);
+
+        assertFalse(model.isCalibrated());
+        assertEquals(HEATING_RATE, model.getHeatingRate(), 0.0005);
+        assertEquals(STANDING_LOSS, model.getStandingLoss(), 0.2);
+        assertEquals(temperature, model.predict(wattHours, time), 0.1);
+
+        // the parameters are still right - the model calibrates again after a few samples
+        for (int i = 0; i < 15; i++) {
+            step(800);
+        }
+        assertTrue(model.isCalibrated());
+        assertEquals(HEATING_RATE, model.getHeatingRate(), 0.0005);
+        assertEquals(STANDING_LOSS, model.getStandingLoss(), 0.2);
+    }
+
+    @Test
+    public void predictsBetweenSensorReads() {
+        for (int i = 0; i < 200; i++) {
+            step((i / 12) % 2 == 0 ? 800 : 0);
+        }
+
+        // one more minute of heating with 1000 W without a sensor read
+        double energy = 1000.0 / 60;
+        double expected = temperature + HEATING_RATE * energy - STANDING_LOSS / 60;
+        double predicted = model.predict(wattHours + energy, time.plusSeconds(60));
+
+        assertEquals(expected, predicted, 0.1);
+        assertEquals(predicted, model.predict(wattHours, time, 1000, Duration.ofMinutes(1)), 0.1);
+    }
+
+    private void step(double power) {
+        double energy = power * SAMPLE_SECS / 3600.0;
+        wattHours += energy;
+        temperature += HEATING_RATE * energy - STANDING_LOSS * SAMPLE_SECS / 3600.0;
+        time = time.plusSeconds(SAMPLE_SECS);
+
+        // DS18B20 resolution is 1/16 K
+        model.update(Math.round(temperature * 16) / 16.0, wattHours, time);
+    }
+}
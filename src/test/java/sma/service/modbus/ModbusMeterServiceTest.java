@@ -0,0 +1,202 @@
+package sma.service.modbus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import sma.domain.em.DataBlock;
+import sma.service.modbus.ModbusRegisterMap.Field;
+import sma.service.modbus.ModbusRegisterMap.Type;
+
+public class ModbusMeterServiceTest {
+
+    private static final int POLL_INTERVAL = 10;
+
+    private ModbusStandInServer server;
+    private ModbusMeterService service;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = new ModbusStandInServer(0, 512);
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() throws IOException {
+        if (service != null) {
+            service.close();
+        }
+        server.close();
+    }
+
+    @Test
+    public void pollRoundTrip() throws IOException {
+        ModbusRegisterMap map = new ModbusRegisterMap()
+                .add(Field.SERIAL_NUMBER, 0, Type.UINT32, 1)
+                .add(Field.POWER_IN, 2, Type.UINT32, 0.1)
+                .add(Field.POWER_OUT, 4, Type.UINT32, 0.1)
+                .add(Field.ENERGY_IN, 6, Type.UINT64, 1)
+                .add(Field.ENERGY_OUT, 10, Type.UINT64, 1);
+
+        server.setValue(0, 2, 1234567);
+        server.setValue(2, 2, 25000);
+        server.setValue(4, 2, 1000);
+        server.setValue(6, 4, 40_000_000L);
+        server.setValue(10, 4, 40_000_001L);
+
+        service = createService(map);
+        for (int i = 0; i < 3; i++) {
+            DataBlock block = service.read();
+            assertEquals(1234567, block.getSerialNumber());
+            assertEquals(2500.0, block.getPowerIn(), 0.01);
+            assertEquals(100.0, block.getPowerOut(), 0.01);
+            assertEquals(40_000_000L * 3600, block.getEnergyInWattSeconds());
+            assertEquals(40_000_001L * 3600, block.getEnergyOutWattSeconds());
+        }
+
+        // the connection is reused
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void pipelinedReadsAcrossNonContiguousBlocks() throws IOException {
+        ModbusRegisterMap map = new ModbusRegisterMap()
+                .add(Field.POWER_IN, 0, Type.UINT32, 1)
+                .add(Field.POWER_OUT, 300, Type.UINT32, 1);
+        assertEquals(2, map.toBlocks().size());
+
+        server.setValue(0, 2, 150);
+        server.setValue(300, 2, 250);
+
+        service = createService(map);
+        DataBlock block = service.read();
+
+        assertEquals(150.0, block.getPowerIn(), 0.01);
+        assertEquals(250.0, block.getPowerOut(), 0.01);
+        assertEquals(2, server.getRequestCount());
+        assertEquals(1, server.getPipelinedCount());
+    }
+
+    @Test
+    public void exceptionResponse() throws IOException {
+        ModbusRegisterMap map = new ModbusRegisterMap()
+                .add(Field.POWER_IN, 511, Type.UINT32, 1);   // exceeds the 512 registers of the server
+
+        service = createService(map);
+        IOException e = assertThrows(IOException.class, service::read);
+        assertTrue(e.getMessage().contains("exception code: 2"), e.getMessage());
+
+        // not repeated on a new connection
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void reconnectAfterConnectionDrop() throws IOException {
+        ModbusRegisterMap map = new ModbusRegisterMap()
+                .add(Field.POWER_IN, 0, Type.UINT32, 1);
+        server.setValue(0, 2, 42);
+
+        service = createService(map);
+        assertEquals(42.0, service.read().getPowerIn(), 0.01);
+
+        // e.g. an idle timeout of a gateway - the poll is repeated on a new connection
+        server.dropConnections();
+        server.setValue(0, 2, 43);
+        assertEquals(43.0, service.read().getPowerIn(), 0.01);
+        assertEquals(2, server.getConnectionCount());
+    }
+
+    @Test
+    public void failureOnNewConnectionIsReported() throws IOException {
+        ModbusRegisterMap map = new ModbusRegisterMap()
+                .add(Field.POWER_IN, 0, Type.UINT32, 1);
+        int port = server.getPort();
+        server.close();
+
+        service = new ModbusMeterService("127.0.0.1", port, 1, POLL_INTERVAL, 2000, map);
+        assertThrows(IOException.class, service::read);
+    }
+
+    @Test
+    public void signedNetPowerWithScaleFactor() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("powerNet.address", "40");
+        props.setProperty("powerNet.type", "int16");
+        props.setProperty("powerNet.scaleFactor", "41");
+        props.setProperty("powerNetL1.address", "42");
+        props.setProperty("powerNetL1.type", "int32");
+        ModbusRegisterMap map = ModbusRegisterMap.fromProperties(props);
+
+        server.setValue(40, 1, -1234 & 0xFFFF);  // exporting
+        server.setValue(41, 1, -1 & 0xFFFF);     // 10^-1
+        server.setValue(42, 2, 500);             // importing
+
+        service = createService(map);
+        DataBlock block = service.read();
+
+        assertEquals(0.0, block.getPowerIn(), 0.01);
+        assertEquals(123.4, block.getPowerOut(), 0.01);
+        assertEquals(500.0, block.getPowerInL1(), 0.01);
+        assertEquals(0.0, block.getPowerOutL1(), 0.01);
+    }
+
+    @Test
+    public void sdm630Profile() throws IOException {
+        ModbusRegisterMap map = ModbusRegisterMap.load("sdm630");
+        assertEquals(ModbusRegisterMap.FC_READ_INPUT_REGISTERS, map.getFunction());
+
+        server.setFloat(12, -300.5f);
+        server.setFloat(14, 100f);
+        server.setFloat(16, 0f);
+        server.setFloat(52, -200.5f);
+        server.setFloat(72, 1234.5f);
+        server.setFloat(74, 567.25f);
+
+        service = createService(map);
+        DataBlock block = service.read();
+
+        assertEquals(0.0, block.getPowerIn(), 0.01);
+        assertEquals(200.5, block.getPowerOut(), 0.01);
+        assertEquals(300.5, block.getPowerOutL1(), 0.01);
+        assertEquals(100.0, block.getPowerInL2(), 0.01);
+        assertEquals(1234500L * 3600, block.getEnergyInWattSeconds());
+        assertEquals(567250L * 3600, block.getEnergyOutWattSeconds());
+    }
+
+    @Test
+    public void unknownKeysAreRejected() {
+        assertInvalid("powerNett.address", "40");
+        assertInvalid("powerNet.adress", "40");
+        assertInvalid("powerNet", "40");
+    }
+
+    @Test
+    public void attributesWithoutAddressAreRejected() {
+        assertInvalid("powerNet.address", "40", "powerIn.type", "int32");
+    }
+
+    @Test
+    public void mapsWithoutPowerAreRejected() {
+        assertInvalid("energyIn.address", "40");
+        assertInvalid("powerIn.address", "40");
+    }
+
+    private static void assertInvalid(String... keysAndValues) {
+        Properties props = new Properties();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            props.setProperty(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        assertThrows(IllegalArgumentException.class, () -> ModbusRegisterMap.fromProperties(props));
+    }
+
+    private ModbusMeterService createService(ModbusRegisterMap map) {
+        return new ModbusMeterService("127.0.0.1", server.getPort(), 1, POLL_INTERVAL, 2000, map);
+    }
+}
@@ -0,0 +1,188 @@
+package sma.service.modbus;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A minimal local Modbus TCP server that serves a fixed set of registers (as holding and input registers).
+ * It stands in for a real meter when testing the {@link ModbusMeterService}.
+ */
+public class ModbusStandInServer implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ModbusStandInServer.class);
+
+    private final int[] registers;
+    private final ServerSocket serverSocket;
+
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicInteger pipelinedCount = new AtomicInteger();
+
+    private volatile boolean running = true;
+
+    /**
+     * @param port the TCP port - use 0 to pick a free port
+     * @param size the number of holding registers
+     */
+    public ModbusStandInServer(int port, int size) throws IOException {
+        this.registers = new int[size];
+        this.serverSocket = new ServerSocket(port, 5, InetAddress.getLoopbackAddress());
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return the number of connections accepted so far
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * @return the number of requests received so far
+     */
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return the number of requests that arrived before the response to the previous request was sent
+     */
+    public int getPipelinedCount() {
+        return pipelinedCount.get();
+    }
+
+    /**
+     * Closes all open client connections, as a device would do after a restart
+     */
+    public void dropConnections() throws IOException {
+        for (Socket client : clients) {
+            client.close();
+        }
+    }
+
+    public void start() {
+        Thread thread = new Thread(this::acceptLoop, "modbus-stand-in");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Sets a value that spans several registers (big-endian, most significant word first)
+     */
+    public synchronized void setValue(int address, int words, long value) {
+        for (int w = words - 1; w >= 0; w--) {
+            registers[address + w] = (int) (value & 0xFFFF);
+            value >>>= 16;
+        }
+    }
+
+    public void setFloat(int address, float value) {
+        setValue(address, 2, Float.floatToIntBits(value) & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        dropConnections();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket client = serverSocket.accept();
+                clients.add(client);
+                connectionCount.incrementAndGet();
+                Thread thread = new Thread(() -> serve(client), "modbus-stand-in-client");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (running) {
+                    log.warn("Could not accept connection: {}", e.toString());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket client) {
+        try (Socket socket = client) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+
+            while (running) {
+                byte[] request = new byte[12];
+                in.readFully(request);
+                if (in.available() > 0) {
+                    pipelinedCount.incrementAndGet();
+                }
+                out.write(handleRequest(ByteBuffer.wrap(request)));
+                out.flush();
+            }
+        } catch (EOFException e) {
+            // client closed the connection
+        } catch (IOException e) {
+            if (running && !client.isClosed()) {
+                log.warn("Connection failed: {}", e.toString());
+            }
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    private synchronized byte[] handleRequest(ByteBuffer request) {
+        short id = request.getShort(0);
+        byte unitId = request.get(6);
+        int function = request.get(7) & 0xFF;
+        int address = request.getShort(8) & 0xFFFF;
+        int count = request.getShort(10) & 0xFFFF;
+
+        requestCount.incrementAndGet();
+
+        if (function != 0x03 && function != 0x04) {
+            return exception(id, unitId, function, 0x01);   // illegal function
+        }
+        if (count < 1 || count > ModbusRegisterMap.MAX_BLOCK_SIZE || address + count > registers.length) {
+            return exception(id, unitId, function, 0x02);   // illegal data address
+        }
+
+        ByteBuffer response = ByteBuffer.allocate(9 + 2 * count);
+        response.putShort(id);
+        response.putShort((short) 0);
+        response.putShort((short) (3 + 2 * count));
+        response.put(unitId);
+        response.put((byte) function);
+        response.put((byte) (2 * count));
+        for (int i = 0; i < count; i++) {
+            response.putShort((short) registers[address + i]);
+        }
+        return response.array();
+    }
+
+    private static byte[] exception(short id, byte unitId, int function, int code) {
+        ByteBuffer response = ByteBuffer.allocate(9);
+        response.putShort(id);
+        response.putShort((short) 0);
+        response.putShort((short) 3);
+        response.put(unitId);
+        response.put((byte) (function | 0x80));
+        response.put((byte) code);
+        return response.array();
+    }
+}